@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.model;
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ObjectFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing the source model with JAXB, as done by the generator
+ * and by the MVA solver, compared with the compiled representation. The
+ * model is read from memory and written to memory so that the disk is not
+ * measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelMarshallingBenchmark {
+
+	/** relative to the directory the benchmarks are run from **/
+	@Param("models/pcm2lqn-2014-05-22-101614.xml")
+	public String modelFile;
+
+	private byte[] source;
+	private JAXBContext jaxbContext;
+	private Marshaller marshaller;
+	private LqnModelType model;
+	private CompiledModel compiledModel;
+	private final CompiledModelWriter compiledModelWriter = new CompiledModelWriter();
+	private final ObjectFactory objectFactory = new ObjectFactory();
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Setup
+	public void setup() throws Exception {
+		source = Files.readAllBytes(Paths.get(modelFile));
+		jaxbContext = JAXBContext.newInstance(LqnModelType.class);
+		marshaller = jaxbContext.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		model = unmarshal();
+		compiledModel = CompiledModel.compile(model);
+	}
+
+	@Benchmark
+	public LqnModelType unmarshal() throws JAXBException {
+		return (LqnModelType) JAXBIntrospector.getValue(jaxbContext.createUnmarshaller()
+				.unmarshal(new ByteArrayInputStream(source)));
+	}
+
+	@Benchmark
+	public int marshal() throws JAXBException {
+		out.reset();
+		JAXBElement<LqnModelType> element = objectFactory.createLqnModel(model);
+		marshaller.marshal(element, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public CompiledModel compile() throws JAXBException {
+		return CompiledModel.compile(unmarshal());
+	}
+
+	@Benchmark
+	public int writeCompiled() throws IOException {
+		out.reset();
+		compiledModelWriter.write(compiledModel, out);
+		return out.size();
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.model;
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ObjectFactory;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ProcessorType;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.ParameterSpace;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.RandomDesign;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.SweepDesign;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generation of a random variant of the source model, as done by the
+ * workers of the generator: a point of the design sets the multiplicity and
+ * the speed factor of every processor, then the variant is spliced into the
+ * bytes of the source model or marshalled with JAXB. Variants are written
+ * to memory so that the disk is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariantGenerationBenchmark {
+
+	/** relative to the directory the benchmarks are run from **/
+	@Param("models/pcm2lqn-2014-05-22-101614.xml")
+	public String modelFile;
+
+	private static final int DESIGN_SIZE = 1 << 16;
+
+	private ParameterSpace space;
+	private SweepDesign design;
+	private double[] point;
+	private int next;
+
+	private CompiledModel variant;
+	private VariantWriter variantWriter;
+	private ByteBuffer buffer;
+
+	private LqnModelType model;
+	private Marshaller marshaller;
+	private final ObjectFactory objectFactory = new ObjectFactory();
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Setup
+	public void setup() throws IOException, JAXBException {
+		CompiledModel compiledModel = CompiledModel.compile(Paths.get(modelFile));
+		variantWriter = new VariantWriter(compiledModel);
+		variant = compiledModel.copy();
+		buffer = ByteBuffer.allocateDirect(variantWriter.getMaxLength());
+
+		space = new ParameterSpace();
+		for (String processor : compiledModel.processorNames) {
+			space.addInteger(processor + " multiplicity", 1, 100);
+			space.addReal(processor + " speed factor", 0.5, 4, 2);
+		}
+		design = new RandomDesign(DESIGN_SIZE, 42);
+		point = new double[space.getDimensions()];
+
+		JAXBContext jaxbContext = JAXBContext.newInstance(LqnModelType.class);
+		model = (LqnModelType) JAXBIntrospector.getValue(jaxbContext.createUnmarshaller()
+				.unmarshal(Paths.get(modelFile).toFile()));
+		marshaller = jaxbContext.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+	}
+
+	private void nextPoint() {
+		design.point(next, point);
+		next = (next + 1) % DESIGN_SIZE;
+	}
+
+	@Benchmark
+	public int splice() {
+		nextPoint();
+		for (int p = 0; p < variant.processorMultiplicity.length; p++) {
+			variant.processorMultiplicity[p] = (int) space.value(2 * p, point[2 * p]);
+			variant.speedFactor[p] = space.value(2 * p + 1, point[2 * p + 1]);
+		}
+		buffer.clear();
+		return variantWriter.write(variant, buffer);
+	}
+
+	@Benchmark
+	public int marshal() throws JAXBException {
+		nextPoint();
+		List<ProcessorType> processors = model.getProcessor();
+		for (int p = 0; p < processors.size(); p++) {
+			processors.get(p).setMultiplicity("" + (int) space.value(2 * p, point[2 * p]));
+			processors.get(p).setSpeedFactor("" + space.value(2 * p + 1, point[2 * p + 1]));
+		}
+		out.reset();
+		marshaller.marshal(objectFactory.createLqnModel(model), out);
+		return out.size();
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip of a model through {@link EvaluationServer#evaluateModel}: the
+ * hand-off to the executor of the solver, the completion of the future and
+ * the listeners chained on it. The model is solved by the MVA solver and is
+ * small enough for the harness to dominate. The journal variant measures
+ * the hash of the model and the lookup that skip an evaluation completed
+ * in a previous run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationServerBenchmark {
+
+	private static final String MODEL = "<?xml version=\"1.0\" encoding=\"us-ascii\"?>\n"
+			+ "<lqn-model name=\"benchmark\">\n"
+			+ "  <solver-params conv_val=\"0.001\" it_limit=\"50\" underrelax_coeff=\"0.5\"/>\n"
+			+ "  <processor multiplicity=\"1\" name=\"Users_Processor\" scheduling=\"inf\">\n"
+			+ "    <task multiplicity=\"10\" name=\"Users_Task\" scheduling=\"ref\" think-time=\"1.0\">\n"
+			+ "      <entry name=\"Users_Entry\" type=\"PH1PH2\">\n"
+			+ "        <entry-phase-activities>\n"
+			+ "          <activity host-demand-mean=\"0.0\" name=\"Users_Activity\" phase=\"1\">\n"
+			+ "            <synch-call calls-mean=\"1.0\" dest=\"Server_Entry\"/>\n"
+			+ "          </activity>\n"
+			+ "        </entry-phase-activities>\n"
+			+ "      </entry>\n"
+			+ "    </task>\n"
+			+ "  </processor>\n"
+			+ "  <processor multiplicity=\"1\" name=\"Server_Processor\" scheduling=\"ps\">\n"
+			+ "    <task multiplicity=\"1\" name=\"Server_Task\" scheduling=\"fcfs\">\n"
+			+ "      <entry name=\"Server_Entry\" type=\"PH1PH2\">\n"
+			+ "        <entry-phase-activities>\n"
+			+ "          <activity host-demand-mean=\"0.05\" name=\"Server_Activity\" phase=\"1\"/>\n"
+			+ "        </entry-phase-activities>\n"
+			+ "      </entry>\n"
+			+ "    </task>\n"
+			+ "  </processor>\n"
+			+ "</lqn-model>\n";
+
+	/** true to run the evaluations on the executor of the solver **/
+	@Param({"true", "false"})
+	public boolean parallel;
+
+	private Path directory;
+	private Path model;
+	private EvaluationServer server;
+	private EvaluationServer resumedServer;
+
+	@Setup
+	public void setup() throws IOException {
+		LogManager.getLoggerRepository().setThreshold(Level.WARN);
+		directory = Files.createTempDirectory("linebenchmark");
+		model = directory.resolve("benchmark.xml");
+		Files.write(model, MODEL.getBytes(StandardCharsets.US_ASCII));
+
+		Properties properties = new Properties();
+		properties.setProperty("solvers", MvaSolver.NAME);
+		properties.setProperty("resultsFile", "");
+		server = new EvaluationServer(parallel, properties);
+
+		properties.setProperty("journalFile", directory.resolve("journal").toString());
+		resumedServer = new EvaluationServer(parallel, properties);
+		resumedServer.evaluateModel(model, MvaSolver.NAME, 0).join();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		server.exit();
+		resumedServer.exit();
+		Files.deleteIfExists(directory.resolve("journal"));
+		Files.deleteIfExists(model);
+		Files.deleteIfExists(directory);
+	}
+
+	@Benchmark
+	public EvaluationResult evaluate() {
+		return server.evaluateModel(model, MvaSolver.NAME).join();
+	}
+
+	@Benchmark
+	public EvaluationResult skipCompleted() {
+		return resumedServer.evaluateModel(model, MvaSolver.NAME, 0).join();
+	}
+}
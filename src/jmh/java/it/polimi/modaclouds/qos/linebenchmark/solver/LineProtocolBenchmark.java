@@ -0,0 +1,127 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of handling the notifications of LINE: parsing the MODEL lines read
+ * from the connection and dispatching the completion through the
+ * connection handler, the server handler and the evaluator. The result
+ * file is not read, the solver returns a result built in advance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineProtocolBenchmark {
+
+	private static final String SUBMITTED = "MODEL  /tmp/models/model-42.xml  SUBMITTED";
+	private static final String SOLVED = "MODEL /tmp/models/model-42_res.xml SOLVED";
+
+	private final Path model = Paths.get("/tmp/models/model-42.xml");
+	/** without listeners, for the parsing alone **/
+	private LineConnectionHandler parser;
+	private LineConnectionHandler connection;
+	private LineServerHandler server;
+	private LineSolver solver;
+
+	@Setup
+	public void setup() {
+		LogManager.getLoggerRepository().setThreshold(org.apache.log4j.Level.WARN);
+		final SolutionResult result = new SolutionResult.Builder()
+				.add(Level.PROCESSOR, "Processor_1", 0.5, 10, 0.05)
+				.add(Level.TASK, "Task_1", 0.5, 10, 0.05)
+				.add(Level.ENTRY, "Entry_1", 0.5, 10, 0.05)
+				.build();
+		solver = new LineSolver() {
+			@Override
+			public SolutionResult parseResults(Path model) {
+				return result;
+			}
+		};
+		parser = new LineConnectionHandler(new BufferedReader(new StringReader("")), "benchmark", new RequestTable(1024));
+		server = new LineServerHandler();
+		connection = new LineConnectionHandler(new BufferedReader(new StringReader("")), "benchmark", server.getRequests());
+		connection.addListener(server);
+	}
+
+	/**
+	 * A SUBMITTED line, recorded with its arrival time
+	 */
+	@Benchmark
+	public void parseSubmitted() {
+		parser.updateModelEvaluation(SUBMITTED, System.nanoTime());
+	}
+
+	/**
+	 * A SUBMITTED and a SOLVED line, the completion event is built and
+	 * notified to no one
+	 */
+	@Benchmark
+	public void parseSolved() {
+		parser.updateModelEvaluation(SUBMITTED, System.nanoTime());
+		parser.updateModelEvaluation(SOLVED, System.nanoTime());
+	}
+
+	/**
+	 * A whole request as seen by the harness: the evaluator registers with
+	 * the server handler, LINE acknowledges and solves the model and the
+	 * completion reaches the result of the evaluator. Without an id the
+	 * answers are matched on the model.
+	 */
+	@Benchmark
+	public EvaluationResult dispatch() throws InterruptedException {
+		LineEvaluator evaluator = new LineEvaluator(model, solver);
+		server.addListener(model, evaluator);
+		connection.updateModelEvaluation(SUBMITTED, System.nanoTime());
+		connection.updateModelEvaluation(SOLVED, System.nanoTime());
+		return evaluator.getResult().getNow(null);
+	}
+
+	/**
+	 * As {@link #dispatch()}, with the answers matched on the request id
+	 */
+	@Benchmark
+	public EvaluationResult dispatchWithId() throws InterruptedException {
+		LineEvaluator evaluator = new LineEvaluator(model, solver);
+		long id = server.addListener(model, evaluator);
+		connection.updateModelEvaluation(SUBMITTED + " ID " + id, System.nanoTime());
+		connection.updateModelEvaluation(SOLVED + " ID " + id, System.nanoTime());
+		return evaluator.getResult().getNow(null);
+	}
+}
@@ -16,10 +16,11 @@
  */
 package it.polimi.modaclouds.qos.linebenchmark.main;
 
-import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
-import it.polimi.modaclouds.qos.linebenchmark.lqn.ObjectFactory;
-import it.polimi.modaclouds.qos.linebenchmark.lqn.ProcessorType;
+import it.polimi.modaclouds.qos.linebenchmark.solver.CompletionJournal;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
 import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationServer;
+import it.polimi.modaclouds.qos.linebenchmark.stats.BenchmarkReport;
+import it.polimi.modaclouds.qos.linebenchmark.stats.ScalabilityReport;
 
 import java.io.File;
 import java.io.FilenameFilter;
@@ -30,16 +31,14 @@ import java.math.RoundingMode;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.JAXBIntrospector;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 
 import org.apache.log4j.PropertyConfigurator;
 import org.slf4j.Logger;
@@ -47,8 +46,10 @@ import org.slf4j.LoggerFactory;
 
 public class Main {
 
-	public static final String LINE_SOLVER = "LINE";
-	public static final String LQNS_SOLVER = "LQNS";
+	/** execution modes: one solver after the other, all the solvers at once or each solver at increasing concurrency **/
+	public static final String MODE_SEQUENTIAL = "sequential";
+	public static final String MODE_PIPELINED = "pipelined";
+	public static final String MODE_SCALABILITY = "scalability";
 	public static Path LINE_PROP_FILE = Paths.get("line.properties");
 	private static Path MODEL_FOLDER = Paths.get("models");
 	private static final Logger logger = LoggerFactory.getLogger(Main.class);	
@@ -91,133 +92,274 @@ public class Main {
 			return;
 		}
 
-		//randomize models when needed
-		if(Boolean.valueOf(prop.getProperty("random"))){			
-			try {
-				createRandomizedModel(prop);
-			} catch (NoModelException e) {
-				logger.error("No model have been specified in the \"models\" folder");
-			}
-		}
-
+		//generated variants are produced again when randomizing
+		final boolean random = Boolean.valueOf(prop.getProperty("random"));
 		File[] modelFiles = modelFolderFile.listFiles(new FilenameFilter() {
 
 			@Override
 			public boolean accept(File arg0, String arg1) {
-				return arg1.endsWith(".xml") && !arg1.endsWith("_res.xml");
+				return arg1.endsWith(".xml") && !arg1.endsWith("_res.xml") && !(random && arg1.matches(".*_\\d+\\.xml"));
 			}
 		});
-		logger.info("Launching Solvers");
-		logger.info("LINE prop file: " + LINE_PROP_FILE.toAbsolutePath());
-		EvaluationServer server = new EvaluationServer(true);
-		logger.info("Starting LQNS evaluations");
-		for (File f : modelFiles) {
-			server.evaluateModel(f.toPath(), LQNS_SOLVER);
+		//a resumed run must generate the same variants, with the seed of its journal
+		String journalFile = prop.getProperty("journalFile", "");
+		if (random && !journalFile.isEmpty() && !prop.containsKey("seed")) {
+			String seed;
+			try {
+				seed = CompletionJournal.readSeed(Paths.get(journalFile));
+			} catch (IOException e) {
+				logger.error("Could not read the seed from the journal "+journalFile, e);
+				return;
+			}
+			if (seed == null)
+				seed = ""+System.nanoTime();
+			else
+				logger.info("Resuming with the seed of the journal: "+seed);
+			prop.setProperty("seed", seed);
 		}
 
-		try {
-			while (!server.lqnsEvaluationsFinished())			
-				Thread.sleep(1 * 1000);			
-			logger.info("Pending LQNS evaluations: "+server.getPendingLqnsEvaluations());
-		} catch (InterruptedException e) {
-			logger.error("error in waiting for evaluations",e);
+		//the levels of a scalability sweep must all be solved and timed
+		boolean scalability = MODE_SCALABILITY.equals(prop.getProperty("mode", MODE_SEQUENTIAL));
+		if (scalability && (Boolean.valueOf(prop.getProperty("cache")) || !prop.getProperty("journalFile", "").isEmpty())) {
+			logger.info("Scalability sweep, cache and journal disabled");
+			prop.setProperty("cache", "false");
+			prop.setProperty("journalFile", "");
 		}
+		logger.info("Launching Solvers");
+		logger.info("LINE prop file: " + LINE_PROP_FILE.toAbsolutePath());
+		EvaluationServer server = new EvaluationServer(true, prop);
 
-		logger.info("Starting LINE evaluations");
-		for (File f : modelFiles) {
-			server.evaluateModel(f.toPath(), LINE_SOLVER);
+		//randomize models when needed, the variants are evaluated as soon as they are written
+		BlockingQueue<Path> generatedModels = null;
+		RandomModelGenerator generator = null;
+		if(random){			
+			try {
+				generatedModels = new ArrayBlockingQueue<>(Integer.parseInt(prop.getProperty("generatorQueueCapacity", "100")));
+				generator = startRandomizedModels(prop, modelFiles, generatedModels, server.getSolverNames());
+			} catch (NoModelException e) {
+				logger.error("No model have been specified in the \"models\" folder");
+				generatedModels = null;
+			}
 		}
+		final RandomModelGenerator sweep = generator;
+
+		//the first pass consumes the generated models, the following ones reuse them
+		List<Path> models = new ArrayList<>();
+		for (File f : modelFiles)
+			models.add(f.toPath());
+		boolean pipelined = MODE_PIPELINED.equals(prop.getProperty("mode", MODE_SEQUENTIAL));
+		if (sweep != null && sweep.isAdaptive() && !pipelined) {
+			//the rounds of an adaptive sweep need the results of all the solvers
+			logger.info("Adaptive sweep, running the solvers pipelined");
+			pipelined = true;
+		}
+		int warmupIterations = Integer.parseInt(prop.getProperty("warmupIterations", "0"));
+		int trials = Integer.parseInt(prop.getProperty("trials", "1"));
+		if (warmupIterations + trials > 1 && Boolean.valueOf(prop.getProperty("cache")))
+			logger.warn("Caching is enabled, repeated trials will be served from the cache and will not be timed");
+		if (scalability) {
+			int maxConcurrency = Integer.parseInt(prop.getProperty("scalabilityMaxConcurrency", ""+Runtime.getRuntime().availableProcessors()));
+			runScalabilitySweep(server, models, generatedModels, sweep, pipelined, warmupIterations, trials, maxConcurrency);
+			server.logSchedulerStats();
+			server.exit();
+			logger.info("Terminated");
+			return;
+		}
+		final BenchmarkReport report = new BenchmarkReport();
+		for (int i = 0; i < warmupIterations + trials; i++) {
+			final boolean warmup = i < warmupIterations;
+			if (warmup)
+				logger.info("Warm-up iteration "+(i+1)+" of "+warmupIterations);
+			else
+				logger.info("Trial "+(i-warmupIterations+1)+" of "+trials);
+			ResultHandler onResult = new ResultHandler() {
+
+				@Override
+				public void handle(EvaluationResult result) {
+					logger.debug("Completed "+result);
+					if (sweep != null)
+						sweep.record(result);
+					if (!warmup)
+						report.record(result);
+				}
 
-		try {
-			while (!server.lineEvaluationsFinished())
-				Thread.sleep(1 * 1000);
-			logger.info("Reamining LINE evaluations"+server.getPendingLineEvaluations());			
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+				@Override
+				public void rejected(Path model, String solver) {
+					if (sweep != null)
+						sweep.discard(model, solver);
+				}
+			};
+			int trial = i - warmupIterations;
+			if (pipelined)
+				runPipelined(server, models, generatedModels, trial, onResult);
+			else
+				runSequential(server, models, generatedModels, trial, onResult);
+			generatedModels = null;
 		}
 
+		server.logSchedulerStats();
 		server.exit();
-		server.logResults();
+		report.log();
 		logger.info("Terminated");
 
 		return;
 	}
 
-	private static void createRandomizedModel(Properties props) throws NoModelException{
+	/**
+	 * Solves all the models with each solver in turn, so that the solvers
+	 * do not interfere with each other
+	 */
+	private static void runSequential(final EvaluationServer server, List<Path> models, BlockingQueue<Path> generatedModels, final int trial, final ResultHandler onResult) {
+		for (final String solver : server.getSolverNames()) {
+			logger.info("Starting "+solver+" evaluations");
+			// the models are generated while the first solver runs
+			forEachModel(models, generatedModels, new ModelHandler() {
+
+				@Override
+				public void handle(Path model) {
+					evaluate(server, model, solver, trial, onResult);
+				}
+			});
+			generatedModels = null;
+			server.awaitAll();
+			logger.info("Pending "+solver+" evaluations: "+server.getPendingEvaluations(solver));
+		}
+	}
 
-		File modelFolderFile = MODEL_FOLDER.toFile();
-		int numberOfCopies = Integer.parseInt(props.getProperty("numberOfEval"));
-		File[] modelFiles = modelFolderFile.listFiles(new FilenameFilter() {
+	/**
+	 * Submits each model to all the solvers at once, each solver consumes the
+	 * models within its own concurrency limit and cpu set
+	 */
+	private static void runPipelined(final EvaluationServer server, List<Path> models, BlockingQueue<Path> generatedModels, final int trial, final ResultHandler onResult) {
+		final List<String> solvers = server.getSolverNames();
+		logger.info("Starting pipelined evaluations with "+solvers);
+		forEachModel(models, generatedModels, new ModelHandler() {
 
 			@Override
-			public boolean accept(File arg0, String arg1) {
-				return arg1.endsWith(".xml") && !arg1.endsWith("_res.xml");
+			public void handle(Path model) {
+				for (String solver : solvers)
+					evaluate(server, model, solver, trial, onResult);
 			}
 		});
+		server.awaitAll();
+		for (String solver : solvers)
+			logger.info("Pending "+solver+" evaluations: "+server.getPendingEvaluations(solver));
+	}
 
-		if(modelFiles.length==0)
-			throw new NoModelException();
+	/**
+	 * Solves the models with each solver alone at concurrency 1, 2, 4, ...
+	 * up to the maximum, running the trials at every level. Generated models
+	 * are consumed by the warm-up iterations, at least one, so that their
+	 * generation is not timed. Level k records trials k*trials and
+	 * following in the results file.
+	 */
+	private static void runScalabilitySweep(final EvaluationServer server, List<Path> models, BlockingQueue<Path> generatedModels,
+			final RandomModelGenerator sweep, boolean pipelined, int warmupIterations, int trials, int maxConcurrency) {
+		if (generatedModels != null)
+			warmupIterations = Math.max(1, warmupIterations);
+		ResultHandler onWarmup = new ResultHandler() {
 
-		JAXBContext jaxbContext;
-		LqnModelType sourceModel = null;
-		Marshaller marshaller = null;
-		try {
-			jaxbContext = JAXBContext.newInstance(LqnModelType.class);
-			Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-			marshaller = jaxbContext.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			sourceModel = (LqnModelType) JAXBIntrospector.getValue(unmarshaller.unmarshal(modelFiles[0]));
+			@Override
+			public void handle(EvaluationResult result) {
+				if (sweep != null)
+					sweep.record(result);
+			}
 
-		} catch (JAXBException e) {
-			logger.error("Error in unmarshalling the model "+modelFiles[0].getName(),e);
+			@Override
+			public void rejected(Path model, String solver) {
+				if (sweep != null)
+					sweep.discard(model, solver);
+			}
+		};
+		for (int i = 0; i < warmupIterations; i++) {
+			logger.info("Warm-up iteration "+(i+1)+" of "+warmupIterations);
+			if (pipelined)
+				runPipelined(server, models, generatedModels, i - warmupIterations, onWarmup);
+			else
+				runSequential(server, models, generatedModels, i - warmupIterations, onWarmup);
+			generatedModels = null;
 		}
 
-		//read the list of processors to randomize
-		Set<String> processorNames = new HashSet<>();
-		for(String s:props.getProperty("processorNames").split(","))
-			processorNames.add(s);
-		//read the name of the user scenario processor  
-		String userScenarioProcessorName = props.getProperty("userScenarioProcessorName"); 
-
-		logger.info("Generating "+numberOfCopies+" random models from: "+modelFiles[0].getName());
-		int maxReplica = Integer.parseInt(props.getProperty("maxReplica"));
-		int maxUsers = Integer.parseInt(props.getProperty("maxUsers"));
-		double maxSpeedFactor= Double.parseDouble(props.getProperty("maxReplica"));
-		for(int i=0;i<numberOfCopies;i++){
-			//clone the model - might not be necessary
-			//LqnModelType newModel = (LqnModelType) sourceModel.clone();
-			File newModelFile = new File(modelFiles[0].getAbsolutePath().replaceFirst(".xml", "_"+i+".xml"));
-			String logmessage = "Model File"+newModelFile.getName()+" ";
-			for(ProcessorType proc:sourceModel.getProcessor()){
-				//randomize processor replicas and speeds
-				if(processorNames.contains(proc.getName())){
-					//new random number from 1 to maxReplica
-					int newReplica =  (int) Math.round(Math.random()*(maxReplica-1)+1);
-					double newSpeedFactor = Math.random()*(maxSpeedFactor-1)+1;
-					proc.setMultiplicity(""+newReplica);
-					proc.setSpeedFactor(""+round(newSpeedFactor,2));
-					logmessage += "Processor: "+proc.getName()+ " replicas: "+newReplica+ " speedFactor: "+newSpeedFactor;
-				} 
-				//change number of users
-				else if(proc.getName().equals(userScenarioProcessorName)){
-					int newNumberOfUsers =(int) Math.round(Math.random()*(maxUsers-1)+1); 
-					proc.setMultiplicity(""+newNumberOfUsers);
-					logmessage += "Processor: "+proc.getName()+" numberOfUsers: "+newNumberOfUsers;							
-				}				
-			}
-			logger.trace(logmessage);
-			try {
-				ObjectFactory objectFactory = new ObjectFactory();
-				JAXBElement<LqnModelType> je =  objectFactory.createLqnModel(sourceModel);
-				marshaller.marshal(je, newModelFile);
-			} catch (JAXBException e) {
-				logger.error("error in marshalling file: "+newModelFile.getName(),e);
+		ScalabilityReport report = new ScalabilityReport();
+		List<Integer> levels = ScalabilityReport.levels(maxConcurrency);
+		for (int l = 0; l < levels.size(); l++) {
+			int concurrency = levels.get(l);
+			for (String solver : server.getSolverNames()) {
+				logger.info("Scalability sweep: "+solver+" at concurrency "+concurrency+", "+models.size()+" models, "+trials+" trials");
+				server.setConcurrency(solver, concurrency);
+				final ScalabilityReport.Level level = report.start(solver, concurrency);
+				for (int t = 0; t < trials; t++)
+					for (Path model : models)
+						server.evaluateModel(model, solver, l * trials + t)
+							.thenAccept(r -> level.record(r));
+				server.awaitAll();
+				level.stop();
 			}
+		}
+		report.log();
+	}
 
+	private interface ModelHandler {
+		void handle(Path model);
+	}
+
+	/**
+	 * Submits the model, a model rejected by the full queue of the solver
+	 * (queuePolicy=reject) is handed to the handler instead of its result
+	 */
+	private static void evaluate(EvaluationServer server, final Path model, final String solver, int trial, final ResultHandler onResult) {
+		try {
+			server.evaluateModel(model, solver, trial)
+				.thenAccept(r -> onResult.handle(r));
+		} catch (RejectedExecutionException e) {
+			logger.warn("Model "+model.getFileName()+" rejected by "+solver+": "+e.getMessage());
+			onResult.rejected(model, solver);
 		}
+	}
 
+	private interface ResultHandler {
+		void handle(EvaluationResult result);
+
+		void rejected(Path model, String solver);
+	}
 
+	/**
+	 * Hands the known models and then the generated ones, as they become
+	 * available, to the handler. Generated models are added to the known ones.
+	 */
+	private static void forEachModel(List<Path> models, BlockingQueue<Path> generatedModels, ModelHandler handler) {
+		for (Path model : models)
+			handler.handle(model);
+		if (generatedModels == null)
+			return;
+		try {
+			Path model;
+			while ((model = generatedModels.take()) != RandomModelGenerator.END_OF_MODELS) {
+				models.add(model);
+				handler.handle(model);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while waiting for the generated models",e);
+		}
+	}
+
+	private static RandomModelGenerator startRandomizedModels(Properties props, File[] modelFiles, BlockingQueue<Path> generatedModels, List<String> solvers) throws NoModelException{
+
+		if(modelFiles.length==0)
+			throw new NoModelException();
+
+		try {
+			RandomModelGenerator generator = new RandomModelGenerator(modelFiles[0], props);
+			generator.start(generatedModels, solvers);
+			return generator;
+		} catch (JAXBException e) {
+			logger.error("Error in unmarshalling the model "+modelFiles[0].getName(),e);
+			throw new NoModelException();
+		} catch (IllegalArgumentException e) {
+			logger.error("Error in setting up the sweep: "+e.getMessage());
+			throw new NoModelException();
+		}
 	}
 
 	public static double round(double value, int places) {
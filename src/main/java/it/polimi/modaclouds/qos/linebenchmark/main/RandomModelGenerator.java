@@ -0,0 +1,444 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.main;
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ObjectFactory;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ProcessorType;
+import it.polimi.modaclouds.qos.linebenchmark.model.CompiledModel;
+import it.polimi.modaclouds.qos.linebenchmark.model.VariantWriter;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.AdaptiveDesign;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.GridDesign;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.LatinHypercubeDesign;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.ParameterSpace;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.RandomDesign;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.SobolDesign;
+import it.polimi.modaclouds.qos.linebenchmark.sweep.SweepDesign;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates variants of a source model in parallel. The replicas and speed
+ * factor of the listed processors and the number of users are the
+ * dimensions of a {@link ParameterSpace}; the points of the variants are
+ * taken from a {@link SweepDesign} chosen by the sweep property:
+ * <ul>
+ * <li>random: independent uniform points (the default)</li>
+ * <li>grid: full factorial design of gridLevels levels per parameter</li>
+ * <li>lhs: Latin hypercube</li>
+ * <li>sobol: Sobol sequence</li>
+ * <li>adaptive: a Sobol design of adaptiveInitialPoints refined in rounds of
+ * adaptiveBatchSize points where the solvers disagree or their solve time
+ * changes sharply, fed with the results through {@link #record}</li>
+ * </ul>
+ * Points are reproducible from the seed and independent of the thread
+ * generating them, every variant is handed to the consumer as soon as it
+ * has been written.
+ * 
+ * Variants are written by splicing their parameters into the source file
+ * with a {@link VariantWriter}; models that cannot be compiled or spliced
+ * are marshalled with JAXB.
+ */
+public class RandomModelGenerator {
+
+	/** marks the end of the generated models in the queue **/
+	public static final Path END_OF_MODELS = Paths.get("");
+
+	public static final String SWEEP_RANDOM = "random";
+	public static final String SWEEP_GRID = "grid";
+	public static final String SWEEP_LHS = "lhs";
+	public static final String SWEEP_SOBOL = "sobol";
+	public static final String SWEEP_ADAPTIVE = "adaptive";
+
+	private static final Logger logger = LoggerFactory.getLogger(RandomModelGenerator.class);
+
+	private final File sourceModelFile;
+	private final LqnModelType sourceModel;
+	private final JAXBContext jaxbContext;
+	/** null when the variants are marshalled **/
+	private CompiledModel compiledModel;
+	private VariantWriter variantWriter;
+	private final Set<String> processorNames = new HashSet<>();
+	private final String userScenarioProcessorName;
+	private final long seed;
+	private final int nThreads;
+	private final String sweep;
+	private final ParameterSpace space = new ParameterSpace();
+	/** dimension of the replicas, speed factor and users of each processor, -1 if not swept **/
+	private final int[] replicaDimension;
+	private final int[] speedDimension;
+	private final int[] usersDimension;
+	private final int numberOfCopies;
+	private final Properties props;
+	private SweepDesign design;
+	private AdaptiveDesign adaptiveDesign;
+	/** index of the written variants, by file name **/
+	private final Map<String, Integer> variants = new ConcurrentHashMap<>();
+	// variants up to available can be generated, workers stop once finished
+	private int nextVariant;
+	private int available;
+	private boolean finished;
+	private AtomicInteger activeWorkers;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the sweep cannot be set up (unknown strategy, too many
+	 *             parameters for a Sobol design)
+	 */
+	public RandomModelGenerator(File sourceModelFile, Properties props) throws JAXBException {
+		this.sourceModelFile = sourceModelFile;
+		this.props = props;
+		jaxbContext = JAXBContext.newInstance(LqnModelType.class);
+		sourceModel = (LqnModelType) JAXBIntrospector.getValue(jaxbContext.createUnmarshaller().unmarshal(sourceModelFile));
+
+		int numberOfEval = Integer.parseInt(props.getProperty("numberOfEval"));
+		//read the list of processors to randomize
+		for(String s:props.getProperty("processorNames").split(","))
+			processorNames.add(s);
+		//read the name of the user scenario processor  
+		userScenarioProcessorName = props.getProperty("userScenarioProcessorName");
+		int maxReplica = Integer.parseInt(props.getProperty("maxReplica"));
+		int maxUsers = Integer.parseInt(props.getProperty("maxUsers"));
+		double maxSpeedFactor= Double.parseDouble(props.getProperty("maxSpeedFactor"));
+		seed = Long.parseLong(props.getProperty("seed", ""+System.nanoTime()));
+		nThreads = Integer.parseInt(props.getProperty("generatorThreads", ""+Runtime.getRuntime().availableProcessors()));
+
+		//one dimension per swept parameter, in the order of the processors
+		List<ProcessorType> processors = sourceModel.getProcessor();
+		replicaDimension = new int[processors.size()];
+		speedDimension = new int[processors.size()];
+		usersDimension = new int[processors.size()];
+		for (int p = 0; p < processors.size(); p++) {
+			String name = processors.get(p).getName();
+			replicaDimension[p] = speedDimension[p] = usersDimension[p] = -1;
+			if (processorNames.contains(name)) {
+				replicaDimension[p] = space.addInteger(name+".replicas", 1, maxReplica);
+				speedDimension[p] = space.addReal(name+".speedFactor", 1, maxSpeedFactor, 2);
+			} else if (name.equals(userScenarioProcessorName))
+				usersDimension[p] = space.addInteger(name+".users", 1, maxUsers);
+		}
+
+		sweep = props.getProperty("sweep", SWEEP_RANDOM);
+		int dimensions = space.getDimensions();
+		switch (sweep) {
+		case SWEEP_RANDOM:
+			design = new RandomDesign(numberOfEval, seed);
+			break;
+		case SWEEP_GRID:
+			int[] levels = gridLevels(props.getProperty("gridLevels"), numberOfEval);
+			design = new GridDesign(levels);
+			break;
+		case SWEEP_LHS:
+			design = new LatinHypercubeDesign(numberOfEval, dimensions, seed);
+			break;
+		case SWEEP_SOBOL:
+			design = new SobolDesign(numberOfEval, dimensions);
+			break;
+		case SWEEP_ADAPTIVE:
+			//built once the solvers are known
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown sweep: "+sweep);
+		}
+		numberOfCopies = design != null ? design.size() : numberOfEval;
+
+		try {
+			compiledModel = CompiledModel.compile(sourceModelFile.toPath());
+			variantWriter = new VariantWriter(compiledModel);
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("The variants of "+sourceModelFile.getName()+" will be marshalled: "+e.getMessage());
+			compiledModel = null;
+			variantWriter = null;
+		}
+	}
+
+	/**
+	 * Levels of each dimension of a grid, by default the most levels whose
+	 * grid does not exceed the number of evaluations
+	 */
+	private int[] gridLevels(String property, int numberOfEval) {
+		int maxLevels;
+		if (property != null)
+			maxLevels = Integer.parseInt(property);
+		else {
+			maxLevels = 2;
+			while (gridSize(maxLevels + 1) <= numberOfEval && gridSize(maxLevels + 1) > gridSize(maxLevels))
+				maxLevels++;
+		}
+		int[] levels = new int[space.getDimensions()];
+		for (int d = 0; d < levels.length; d++)
+			levels[d] = space.levels(d, maxLevels);
+		return levels;
+	}
+
+	private long gridSize(int maxLevels) {
+		long size = 1;
+		for (int d = 0; d < space.getDimensions(); d++)
+			size *= space.levels(d, maxLevels);
+		return size;
+	}
+
+	/**
+	 * Whether the generation depends on the results of the evaluations
+	 */
+	public boolean isAdaptive() {
+		return SWEEP_ADAPTIVE.equals(sweep);
+	}
+
+	/**
+	 * Starts the generation, the path of each variant is put in the queue
+	 * once written and {@link #END_OF_MODELS} is put after the last one. A
+	 * bounded queue stops the generation while the consumer is behind. An
+	 * adaptive sweep waits for the results of the solvers after each round.
+	 */
+	public void start(final BlockingQueue<Path> queue, List<String> solvers) {
+		if (isAdaptive()) {
+			int initialPoints = Integer.parseInt(props.getProperty("adaptiveInitialPoints", ""+Math.max(2, numberOfCopies/4)));
+			int batchSize = Integer.parseInt(props.getProperty("adaptiveBatchSize", ""+Math.max(1, numberOfCopies/10)));
+			SweepDesign initial = space.getDimensions() <= SobolDesign.MAX_DIMENSIONS
+					? new SobolDesign(initialPoints, space.getDimensions())
+					: new LatinHypercubeDesign(initialPoints, space.getDimensions(), seed);
+			adaptiveDesign = new AdaptiveDesign(initial, numberOfCopies, batchSize, space, solvers);
+			design = adaptiveDesign;
+		}
+		logger.info("Generating "+numberOfCopies+" models ("+sweep+" sweep of "+space.getDimensions()+" parameters) from: "
+				+sourceModelFile.getName()+" with "+nThreads+" threads, seed: "+seed);
+		activeWorkers = new AtomicInteger(nThreads);
+		for (int t = 0; t < nThreads; t++) {
+			Thread worker = new Thread(new Worker(queue), "generator-"+t);
+			worker.setDaemon(true);
+			worker.start();
+		}
+		if (isAdaptive()) {
+			Thread refiner = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					refine();
+				}
+			}, "generator-refiner");
+			refiner.setDaemon(true);
+			refiner.start();
+		} else
+			release(numberOfCopies, true);
+	}
+
+	/**
+	 * Hands the result of an evaluation of a variant to an adaptive sweep
+	 */
+	public void record(EvaluationResult result) {
+		if (adaptiveDesign == null || result.getModelPath() == null)
+			return;
+		Integer i = variants.get(result.getModelPath().getFileName().toString());
+		if (i == null)
+			return;
+		// a trial skipped on resume says nothing about the point
+		if (result.getStatus() == EvaluationStatus.SKIPPED)
+			adaptiveDesign.discard(i, result.getSolverName());
+		else
+			adaptiveDesign.record(i, result.getSolverName(), result.getStatus(), result.getEvaluationTimeNanos(),
+					result.getSolutionResult());
+	}
+
+	/**
+	 * The solver will not evaluate the model (e.g. it has been rejected by
+	 * the queue of the solver), the adaptive sweep does not wait for it
+	 */
+	public void discard(Path model, String solver) {
+		if (adaptiveDesign == null)
+			return;
+		Integer i = variants.get(model.getFileName().toString());
+		if (i != null)
+			adaptiveDesign.discard(i, solver);
+	}
+
+	/**
+	 * Releases the rounds of an adaptive sweep, each one after the results
+	 * of the previous ones
+	 */
+	private void refine() {
+		try {
+			int round = 1;
+			while (true) {
+				int points = adaptiveDesign.available();
+				logger.info("Adaptive sweep round "+round+": "+points+" of "+numberOfCopies+" models");
+				release(points, false);
+				adaptiveDesign.awaitResults();
+				if (points >= numberOfCopies || adaptiveDesign.refine() == 0)
+					break;
+				round++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while refining the sweep",e);
+		} finally {
+			release(adaptiveDesign.available(), true);
+		}
+	}
+
+	private synchronized void release(int variants, boolean last) {
+		available = variants;
+		finished = last;
+		notifyAll();
+	}
+
+	/**
+	 * @return the index of the next variant to generate, -1 when finished
+	 */
+	private synchronized int claim() throws InterruptedException {
+		while (nextVariant >= available && !finished)
+			wait();
+		return nextVariant < available ? nextVariant++ : -1;
+	}
+
+	private class Worker implements Runnable {
+
+		private final BlockingQueue<Path> queue;
+		private final double[] point = new double[space.getDimensions()];
+
+		public Worker(BlockingQueue<Path> queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (variantWriter != null)
+					splice();
+				else
+					marshal();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("Interrupted while generating models",e);
+			} finally {
+				if (activeWorkers.decrementAndGet() == 0)
+					try {
+						queue.put(END_OF_MODELS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+			}
+		}
+
+		private void splice() throws InterruptedException {
+			//each worker sets the parameters of its own copy of the model
+			CompiledModel model = compiledModel.copy();
+			int i;
+			while ((i = claim()) >= 0) {
+				File newModelFile = variantFile(i);
+				design.point(i, point);
+				apply(point, model.processorMultiplicity, model.speedFactor, newModelFile);
+				try {
+					variantWriter.write(model, newModelFile.toPath());
+					put(i, newModelFile);
+				} catch (IOException e) {
+					logger.error("error in writing file: "+newModelFile.getName(),e);
+					discard(i);
+				}
+			}
+		}
+
+		private void marshal() throws InterruptedException {
+			try {
+				//each worker sets the parameters of its own copy of the model
+				LqnModelType model = (LqnModelType) sourceModel.clone();
+				Marshaller marshaller = jaxbContext.createMarshaller();
+				marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+				ObjectFactory objectFactory = new ObjectFactory();
+				List<ProcessorType> processors = model.getProcessor();
+				int[] multiplicity = new int[processors.size()];
+				double[] speedFactor = new double[processors.size()];
+				int i;
+				while ((i = claim()) >= 0) {
+					File newModelFile = variantFile(i);
+					design.point(i, point);
+					apply(point, multiplicity, speedFactor, newModelFile);
+					for (int p = 0; p < processors.size(); p++) {
+						if (speedDimension[p] >= 0)
+							processors.get(p).setSpeedFactor(""+speedFactor[p]);
+						if (replicaDimension[p] >= 0 || usersDimension[p] >= 0)
+							processors.get(p).setMultiplicity(""+multiplicity[p]);
+					}
+					try {
+						JAXBElement<LqnModelType> je =  objectFactory.createLqnModel(model);
+						marshaller.marshal(je, newModelFile);
+						put(i, newModelFile);
+					} catch (JAXBException e) {
+						logger.error("error in marshalling file: "+newModelFile.getName(),e);
+						discard(i);
+					}
+				}
+			} catch (JAXBException e) {
+				logger.error("error in creating the marshaller",e);
+			}
+		}
+
+		private void put(int i, File newModelFile) throws InterruptedException {
+			variants.put(newModelFile.getName(), i);
+			queue.put(newModelFile.toPath());
+		}
+
+		private void discard(int i) {
+			if (adaptiveDesign != null)
+				adaptiveDesign.discard(i);
+		}
+	}
+
+	private File variantFile(int i) {
+		return new File(sourceModelFile.getAbsolutePath().replaceFirst(".xml", "_"+i+".xml"));
+	}
+
+	/**
+	 * Sets the multiplicity and speed factor of the swept processors to the
+	 * values of the point, the values of the other processors are left
+	 * unchanged
+	 */
+	private void apply(double[] point, int[] multiplicity, double[] speedFactor, File newModelFile) {
+		for (int p = 0; p < multiplicity.length; p++) {
+			if (replicaDimension[p] >= 0)
+				multiplicity[p] = (int) space.value(replicaDimension[p], point[replicaDimension[p]]);
+			if (speedDimension[p] >= 0)
+				speedFactor[p] = space.value(speedDimension[p], point[speedDimension[p]]);
+			if (usersDimension[p] >= 0)
+				multiplicity[p] = (int) space.value(usersDimension[p], point[usersDimension[p]]);
+		}
+		if (logger.isTraceEnabled())
+			logger.trace("Model File "+newModelFile.getName()+" "+space.describe(point));
+	}
+
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.model;
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityDefBase;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityDefType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityGraphBase;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityLoopType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityMakingCallType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityOrType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityPhasesType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ActivityType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.EntryType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ObjectFactory;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.PrecedenceType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ProcessorType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.SchedulingType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.TaskSchedulingType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.TaskType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+
+/**
+ * An LQN model compiled into primitive arrays, one for each attribute of
+ * the processors, tasks, entries, activities and calls. Elements are
+ * numbered in document order; the entries of a task, the activities an
+ * entry executes and the calls of an activity are stored in compressed rows
+ * (e.g. the calls of activity a are callStart[a] to callStart[a+1]-1).
+ * 
+ * The arrays of the parameters (multiplicities, speed factors, think times,
+ * demands and call means) can be changed in place, {@link #copy()} shares
+ * the structure and copies only them. {@link CompiledModelWriter} writes
+ * the model back to LQN XML.
+ */
+public class CompiledModel {
+
+	private static JAXBContext jaxbContext;
+
+	// processors
+	public final String[] processorNames;
+	public final int[] processorMultiplicity;
+	public final double[] speedFactor;
+	/** processors with infinite servers (inf scheduling) **/
+	public final boolean[] processorInfinite;
+
+	// tasks, the entries of task t are taskEntryStart[t] to taskEntryStart[t+1]-1
+	public final String[] taskNames;
+	public final int[] taskProcessor;
+	public final int[] taskMultiplicity;
+	public final double[] thinkTime;
+	/** reference tasks, whose multiplicity is the number of customers **/
+	public final boolean[] taskReference;
+	/** tasks with infinite threads (inf scheduling) **/
+	public final boolean[] taskInfinite;
+	public final int[] taskEntryStart;
+
+	// entries, executing entryActivityVisits[i] times the activity entryActivity[i]
+	public final String[] entryNames;
+	public final int[] entryTask;
+	public final int[] entryActivityStart;
+	public final int[] entryActivity;
+	public final double[] entryActivityVisits;
+
+	// activities
+	public final String[] activityNames;
+	public final int[] activityTask;
+	/** phase of the activities of entries with phases, 1 for activity graphs **/
+	public final int[] activityPhase;
+	public final double[] hostDemand;
+
+	// calls, from activity to entry
+	public final int[] callStart;
+	public final int[] callDest;
+	public final double[] callMean;
+	public final boolean[] callAsynch;
+
+	// solver-params, 0 when not set
+	public final double convergence;
+	public final int iterationLimit;
+	public final double underrelaxation;
+
+	/** the model compiled, written with the parameters of the arrays **/
+	private final LqnModelType source;
+	private byte[] template;
+
+	/**
+	 * Reads and compiles a model, the file is kept as template of the writer
+	 */
+	public static CompiledModel compile(Path model) throws IOException {
+		byte[] document = Files.readAllBytes(model);
+		try {
+			LqnModelType lqnModel = (LqnModelType) JAXBIntrospector.getValue(
+					getContext().createUnmarshaller().unmarshal(new ByteArrayInputStream(document)));
+			CompiledModel compiled = new CompiledModel(lqnModel);
+			compiled.template = document;
+			return compiled;
+		} catch (JAXBException e) {
+			throw new IOException("Could not read model " + model, e);
+		}
+	}
+
+	/**
+	 * Compiles a model, the model should not be changed afterwards as it is
+	 * the template of the writer
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the model is not complete: undefined entries or
+	 *             activities, cyclic activity graphs or values that are not
+	 *             numbers (e.g. LQX variables)
+	 */
+	public static CompiledModel compile(LqnModelType model) {
+		return new CompiledModel(model);
+	}
+
+	static synchronized JAXBContext getContext() throws JAXBException {
+		if (jaxbContext == null)
+			jaxbContext = JAXBContext.newInstance(LqnModelType.class);
+		return jaxbContext;
+	}
+
+	private CompiledModel(LqnModelType model) {
+		source = model;
+		List<ProcessorType> processors = model.getProcessor();
+		List<TaskType> tasks = new ArrayList<TaskType>();
+		List<Integer> hosts = new ArrayList<Integer>();
+
+		int p = processors.size();
+		processorNames = new String[p];
+		processorMultiplicity = new int[p];
+		speedFactor = new double[p];
+		processorInfinite = new boolean[p];
+		for (int i = 0; i < p; i++) {
+			ProcessorType processor = processors.get(i);
+			processorNames[i] = processor.getName();
+			processorMultiplicity[i] = (int) number(processor.getMultiplicity(), "multiplicity of " + processor.getName());
+			speedFactor[i] = number(processor.getSpeedFactor(), "speed-factor of " + processor.getName());
+			processorInfinite[i] = processor.getScheduling() == SchedulingType.INF;
+			for (TaskType task : processor.getTask()) {
+				tasks.add(task);
+				hosts.add(i);
+			}
+		}
+
+		int t = tasks.size();
+		taskNames = new String[t];
+		taskProcessor = new int[t];
+		taskMultiplicity = new int[t];
+		thinkTime = new double[t];
+		taskReference = new boolean[t];
+		taskInfinite = new boolean[t];
+		taskEntryStart = new int[t + 1];
+		List<String> entries = new ArrayList<String>();
+		List<Integer> owners = new ArrayList<Integer>();
+		Map<String, Integer> entryIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < t; i++) {
+			TaskType task = tasks.get(i);
+			taskNames[i] = task.getName();
+			taskProcessor[i] = hosts.get(i);
+			taskMultiplicity[i] = (int) number(task.getMultiplicity(), "multiplicity of " + task.getName());
+			thinkTime[i] = number(task.getThinkTime(), "think-time of " + task.getName());
+			taskReference[i] = task.getScheduling() == TaskSchedulingType.REF;
+			taskInfinite[i] = task.getScheduling() == TaskSchedulingType.INF;
+			taskEntryStart[i] = entries.size();
+			for (EntryType entry : task.getEntry()) {
+				entryIndex.put(entry.getName(), entries.size());
+				entries.add(entry.getName());
+				owners.add(i);
+			}
+		}
+		taskEntryStart[t] = entries.size();
+		entryNames = entries.toArray(new String[entries.size()]);
+		entryTask = new int[entryNames.length];
+		for (int i = 0; i < entryTask.length; i++)
+			entryTask[i] = owners.get(i);
+
+		// activities in document order: the ones of the entries, then the activity graph of the task
+		Activities activities = new Activities(entryIndex);
+		List<List<double[]>> executed = new ArrayList<List<double[]>>();
+		for (int i = 0; i < entryNames.length; i++)
+			executed.add(new ArrayList<double[]>());
+		for (int i = 0; i < t; i++) {
+			TaskType task = tasks.get(i);
+			for (EntryType entry : task.getEntry()) {
+				List<double[]> entryActivities = executed.get(entryIndex.get(entry.getName()));
+				if (entry.getEntryPhaseActivities() != null)
+					for (ActivityPhasesType activity : entry.getEntryPhaseActivities().getActivity())
+						entryActivities.add(new double[] {
+								activities.add(i, activity, activity.getActivityCallGroup(), activity.getPhase()), 1 });
+				else if (entry.getEntryActivityGraph() != null)
+					addGraph(entry.getEntryActivityGraph(), i, null, activities, entryActivities);
+			}
+			if (task.getTaskActivities() != null) {
+				int first = activities.names.size();
+				for (ActivityDefType activity : task.getTaskActivities().getActivity())
+					activities.add(i, activity, activity.getActivityCallGroup(), 1);
+				for (ActivityDefType activity : task.getTaskActivities().getActivity())
+					if (activity.getBoundToEntry() != null) {
+						Integer entry = entryIndex.get(activity.getBoundToEntry());
+						if (entry == null)
+							throw new IllegalArgumentException("Undefined entry " + activity.getBoundToEntry());
+						executed.get(entry).addAll(visits(task.getTaskActivities(), activity.getName(), first));
+					}
+			}
+		}
+
+		int a = activities.names.size();
+		activityNames = activities.names.toArray(new String[a]);
+		activityTask = new int[a];
+		activityPhase = new int[a];
+		hostDemand = new double[a];
+		callStart = new int[a + 1];
+		for (int i = 0; i < a; i++) {
+			activityTask[i] = activities.tasks.get(i);
+			activityPhase[i] = activities.phases.get(i);
+			hostDemand[i] = activities.demands.get(i);
+			callStart[i + 1] = callStart[i] + activities.calls.get(i).size();
+		}
+		callDest = new int[callStart[a]];
+		callMean = new double[callStart[a]];
+		callAsynch = new boolean[callStart[a]];
+		for (int i = 0; i < a; i++)
+			for (int k = 0; k < activities.calls.get(i).size(); k++) {
+				double[] call = activities.calls.get(i).get(k);
+				callDest[callStart[i] + k] = (int) call[0];
+				callMean[callStart[i] + k] = call[1];
+				callAsynch[callStart[i] + k] = call[2] != 0;
+			}
+
+		entryActivityStart = new int[entryNames.length + 1];
+		for (int i = 0; i < entryNames.length; i++)
+			entryActivityStart[i + 1] = entryActivityStart[i] + executed.get(i).size();
+		entryActivity = new int[entryActivityStart[entryNames.length]];
+		entryActivityVisits = new double[entryActivity.length];
+		for (int i = 0; i < entryNames.length; i++)
+			for (int k = 0; k < executed.get(i).size(); k++) {
+				entryActivity[entryActivityStart[i] + k] = (int) executed.get(i).get(k)[0];
+				entryActivityVisits[entryActivityStart[i] + k] = executed.get(i).get(k)[1];
+			}
+
+		LqnModelType.SolverParams params = model.getSolverParams();
+		convergence = params != null ? params.getConvVal() : 0;
+		iterationLimit = params != null ? params.getItLimit() : 0;
+		underrelaxation = params != null ? params.getUnderrelaxCoeff() : 0;
+	}
+
+	/**
+	 * Copy sharing the structure, the parameters are copied
+	 */
+	private CompiledModel(CompiledModel model) {
+		source = model.source;
+		template = model.template;
+		processorNames = model.processorNames;
+		processorMultiplicity = model.processorMultiplicity.clone();
+		speedFactor = model.speedFactor.clone();
+		processorInfinite = model.processorInfinite;
+		taskNames = model.taskNames;
+		taskProcessor = model.taskProcessor;
+		taskMultiplicity = model.taskMultiplicity.clone();
+		thinkTime = model.thinkTime.clone();
+		taskReference = model.taskReference;
+		taskInfinite = model.taskInfinite;
+		taskEntryStart = model.taskEntryStart;
+		entryNames = model.entryNames;
+		entryTask = model.entryTask;
+		entryActivityStart = model.entryActivityStart;
+		entryActivity = model.entryActivity;
+		entryActivityVisits = model.entryActivityVisits;
+		activityNames = model.activityNames;
+		activityTask = model.activityTask;
+		activityPhase = model.activityPhase;
+		hostDemand = model.hostDemand.clone();
+		callStart = model.callStart;
+		callDest = model.callDest;
+		callMean = model.callMean.clone();
+		callAsynch = model.callAsynch;
+		convergence = model.convergence;
+		iterationLimit = model.iterationLimit;
+		underrelaxation = model.underrelaxation;
+	}
+
+	public CompiledModel copy() {
+		return new CompiledModel(this);
+	}
+
+	/**
+	 * Whether the two models are copies of the same compiled model
+	 */
+	boolean sharesStructure(CompiledModel model) {
+		return taskEntryStart == model.taskEntryStart && callStart == model.callStart;
+	}
+
+	/**
+	 * The document the model has been compiled from, marshalled once when
+	 * the model has not been read from a file
+	 */
+	synchronized byte[] getTemplate() throws IOException {
+		if (template == null)
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Marshaller marshaller = getContext().createMarshaller();
+				marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+				marshaller.marshal(new ObjectFactory().createLqnModel(source), out);
+				template = out.toByteArray();
+			} catch (JAXBException e) {
+				throw new IOException("Could not write the template of model " + source.getName(), e);
+			}
+		return template;
+	}
+
+	public int indexOfProcessor(String name) {
+		return indexOf(processorNames, name);
+	}
+
+	public int indexOfTask(String name) {
+		return indexOf(taskNames, name);
+	}
+
+	public int indexOfEntry(String name) {
+		return indexOf(entryNames, name);
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++)
+			if (names[i].equals(name))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Activities and calls collected while compiling
+	 */
+	private static class Activities {
+		final Map<String, Integer> entryIndex;
+		final List<String> names = new ArrayList<String>();
+		final List<Integer> tasks = new ArrayList<Integer>();
+		final List<Integer> phases = new ArrayList<Integer>();
+		final List<Double> demands = new ArrayList<Double>();
+		/** destination entry, mean and 1 for asynchronous calls **/
+		final List<List<double[]>> calls = new ArrayList<List<double[]>>();
+
+		Activities(Map<String, Integer> entryIndex) {
+			this.entryIndex = entryIndex;
+		}
+
+		int add(int task, ActivityDefBase activity, List<JAXBElement<ActivityMakingCallType>> activityCalls, int phase) {
+			names.add(activity.getName());
+			tasks.add(task);
+			phases.add(phase);
+			demands.add(number(activity.getHostDemandMean(), "host-demand-mean of " + activity.getName()));
+			List<double[]> made = new ArrayList<double[]>();
+			for (JAXBElement<ActivityMakingCallType> element : activityCalls) {
+				ActivityMakingCallType call = element.getValue();
+				Integer dest = entryIndex.get(call.getDest());
+				if (dest == null)
+					throw new IllegalArgumentException("Undefined entry " + call.getDest() + " called by " + activity.getName());
+				made.add(new double[] { dest, number(call.getCallsMean(), "calls-mean of " + activity.getName()),
+						element.getName().getLocalPart().equals("asynch-call") ? 1 : 0 });
+			}
+			calls.add(made);
+			return names.size() - 1;
+		}
+	}
+
+	/**
+	 * Adds the activities of an entry activity graph, then the executions of
+	 * the ones reachable from its first activities
+	 */
+	private static void addGraph(ActivityGraphBase graph, int task, String start, Activities activities,
+			List<double[]> entryActivities) {
+		int first = activities.names.size();
+		for (ActivityDefType activity : graph.getActivity())
+			activities.add(task, activity, activity.getActivityCallGroup(), 1);
+		entryActivities.addAll(visits(graph, start, first));
+	}
+
+	/**
+	 * Mean executions of the activities of a graph reachable from the start
+	 * activity, or from the activities without predecessors when start is
+	 * null. The activities of the graph are numbered from first. The
+	 * branches of an AND fork are counted as if executed in sequence.
+	 */
+	private static List<double[]> visits(ActivityGraphBase graph, String start, int first) {
+		List<ActivityDefType> activities = graph.getActivity();
+		int n = activities.size();
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < n; i++)
+			index.put(activities.get(i).getName(), i);
+
+		// edges weighted by the executions of the successor per execution of the predecessor
+		List<List<double[]>> successors = new ArrayList<List<double[]>>();
+		for (int i = 0; i < n; i++)
+			successors.add(new ArrayList<double[]>());
+		int[] predecessors = new int[n];
+		for (PrecedenceType precedence : graph.getPrecedence()) {
+			List<ActivityType> from = new ArrayList<ActivityType>();
+			double joinWeight = 1;
+			if (precedence.getPre() != null)
+				from.add(precedence.getPre().getActivity());
+			else if (precedence.getPreOR() != null)
+				from.addAll(precedence.getPreOR().getActivity());
+			else if (precedence.getPreAND() != null) {
+				from.addAll(precedence.getPreAND().getActivity());
+				joinWeight = 1.0 / from.size();
+			}
+			List<double[]> to = new ArrayList<double[]>();
+			if (precedence.getPost() != null)
+				to.add(edge(index, precedence.getPost().getActivity().getName(), 1));
+			else if (precedence.getPostOR() != null)
+				for (ActivityOrType branch : precedence.getPostOR().getActivity())
+					to.add(edge(index, branch.getName(), number(branch.getProb(), "prob of " + branch.getName())));
+			else if (precedence.getPostAND() != null)
+				for (ActivityType branch : precedence.getPostAND().getActivity())
+					to.add(edge(index, branch.getName(), 1));
+			else if (precedence.getPostLOOP() != null) {
+				for (ActivityLoopType body : precedence.getPostLOOP().getActivity())
+					to.add(edge(index, body.getName(), number(body.getCount(), "count of " + body.getName())));
+				if (precedence.getPostLOOP().getEnd() != null)
+					to.add(edge(index, precedence.getPostLOOP().getEnd(), 1));
+			}
+			for (ActivityType pre : from) {
+				int i = (int) edge(index, pre.getName(), 0)[0];
+				for (double[] post : to) {
+					successors.get(i).add(new double[] { post[0], post[1] * joinWeight });
+					predecessors[(int) post[0]]++;
+				}
+			}
+		}
+
+		// executions of each activity, propagated in topological order
+		double[] visits = new double[n];
+		int[] queue = new int[n];
+		int head = 0, tail = 0;
+		for (int i = 0; i < n; i++)
+			if (predecessors[i] == 0) {
+				queue[tail++] = i;
+				if (start == null ? activities.get(i).getBoundToEntry() == null : activities.get(i).getName().equals(start))
+					visits[i] = 1;
+			}
+		while (head < tail) {
+			int i = queue[head++];
+			for (double[] post : successors.get(i)) {
+				int j = (int) post[0];
+				visits[j] += visits[i] * post[1];
+				if (--predecessors[j] == 0)
+					queue[tail++] = j;
+			}
+		}
+		if (tail < n)
+			throw new IllegalArgumentException("Cyclic precedences in the activity graph of " + activities.get(0).getName());
+		List<double[]> executed = new ArrayList<double[]>();
+		for (int i = 0; i < n; i++)
+			if (visits[i] > 0)
+				executed.add(new double[] { first + i, visits[i] });
+		return executed;
+	}
+
+	private static double[] edge(Map<String, Integer> index, String activity, double weight) {
+		Integer i = index.get(activity);
+		if (i == null)
+			throw new IllegalArgumentException("Undefined activity " + activity);
+		return new double[] { i, weight };
+	}
+
+	/**
+	 * Parses a numeric attribute, the values of LQX variables are not known
+	 */
+	static double number(String value, String what) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException | NullPointerException e) {
+			throw new IllegalArgumentException("The " + what + " is not a number: " + value);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a compiled model as LQN XML. The document the model has been
+ * compiled from is streamed to the output, the multiplicity and speed-factor
+ * of processors, the multiplicity and think-time of tasks, the
+ * host-demand-mean of activities and the calls-mean of calls are replaced
+ * by the values in the arrays. Elements are matched by their position in
+ * the document, so the structure of the model must not have changed.
+ */
+public class CompiledModelWriter {
+
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	public void write(CompiledModel model, Path file) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file)) {
+			write(model, out);
+		}
+	}
+
+	public void write(CompiledModel model, OutputStream out) throws IOException {
+		try {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(model.getTemplate()));
+			String encoding = reader.getEncoding() != null ? reader.getEncoding() : "UTF-8";
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, encoding);
+			try {
+				copy(model, reader, writer, encoding);
+			} finally {
+				reader.close();
+				writer.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not write model", e);
+		}
+	}
+
+	private static void copy(CompiledModel model, XMLStreamReader reader, XMLStreamWriter writer, String encoding)
+			throws XMLStreamException {
+		Deque<String> parents = new ArrayDeque<String>();
+		int processor = 0, task = 0, activity = 0, call = 0;
+		writer.writeStartDocument(encoding, reader.getVersion() != null ? reader.getVersion() : "1.0");
+		writer.writeCharacters("\n");
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				String element = reader.getLocalName();
+				String parent = parents.peek();
+				writer.writeStartElement(reader.getPrefix() != null ? reader.getPrefix() : "", element,
+						reader.getNamespaceURI() != null ? reader.getNamespaceURI() : "");
+				for (int i = 0; i < reader.getNamespaceCount(); i++)
+					writer.writeNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+				if (element.equals("processor")) {
+					copyAttributes(reader, writer, "multiplicity", "speed-factor");
+					writeParameter(reader, writer, "multiplicity", model.processorMultiplicity[processor], 1);
+					writeParameter(reader, writer, "speed-factor", model.speedFactor[processor], 1);
+					processor++;
+				} else if (element.equals("task")) {
+					copyAttributes(reader, writer, "multiplicity", "think-time");
+					writeParameter(reader, writer, "multiplicity", model.taskMultiplicity[task], 1);
+					writeParameter(reader, writer, "think-time", model.thinkTime[task], 0);
+					task++;
+				} else if (element.equals("activity") && isActivityDefinition(parent)) {
+					copyAttributes(reader, writer, "host-demand-mean");
+					writeParameter(reader, writer, "host-demand-mean", model.hostDemand[activity], Double.NaN);
+					activity++;
+				} else if ((element.equals("synch-call") || element.equals("asynch-call")) && "activity".equals(parent)) {
+					copyAttributes(reader, writer, "calls-mean");
+					writeParameter(reader, writer, "calls-mean", model.callMean[call], Double.NaN);
+					call++;
+				} else
+					copyAttributes(reader, writer);
+				parents.push(element);
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				parents.pop();
+				writer.writeEndElement();
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				break;
+			case XMLStreamConstants.CDATA:
+				writer.writeCData(reader.getText());
+				break;
+			case XMLStreamConstants.COMMENT:
+				writer.writeComment(reader.getText());
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+				break;
+			default:
+				break;
+			}
+		}
+		writer.writeEndDocument();
+		if (processor != model.processorNames.length || task != model.taskNames.length
+				|| activity != model.activityNames.length || call != model.callDest.length)
+			throw new XMLStreamException("The template does not match the structure of the compiled model");
+	}
+
+	/**
+	 * Activities are defined in these elements, elsewhere they are referred to
+	 */
+	private static boolean isActivityDefinition(String parent) {
+		return "entry-phase-activities".equals(parent) || "task-activities".equals(parent)
+				|| "entry-activity-graph".equals(parent);
+	}
+
+	/**
+	 * Writes the value of a parameter, keeping the text of the template when
+	 * the value has not changed and leaving out a missing attribute when the
+	 * value is the default one
+	 */
+	private static void writeParameter(XMLStreamReader reader, XMLStreamWriter writer, String name, double value,
+			double defaultValue) throws XMLStreamException {
+		String original = reader.getAttributeValue(null, name);
+		if (original != null) {
+			try {
+				if (Double.parseDouble(original.trim()) == value) {
+					writer.writeAttribute(name, original);
+					return;
+				}
+			} catch (NumberFormatException e) {
+				// replaced by the value of the compiled model
+			}
+		} else if (value == defaultValue)
+			return;
+		writer.writeAttribute(name, value == Math.rint(value) && Math.abs(value) < Integer.MAX_VALUE
+				&& name.equals("multiplicity") ? Integer.toString((int) value) : Double.toString(value));
+	}
+
+	private static void copyAttributes(XMLStreamReader reader, XMLStreamWriter writer, String... replaced)
+			throws XMLStreamException {
+		attributes: for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String name = reader.getAttributeLocalName(i);
+			String namespace = reader.getAttributeNamespace(i);
+			if (namespace == null || namespace.isEmpty()) {
+				for (String r : replaced)
+					if (r.equals(name))
+						continue attributes;
+				writer.writeAttribute(name, reader.getAttributeValue(i));
+			} else
+				writer.writeAttribute(reader.getAttributePrefix(i), namespace, name, reader.getAttributeValue(i));
+		}
+	}
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Writes variants of a compiled model by splicing their parameters into the
+ * bytes of the document the model has been compiled from. The document is
+ * scanned once to record where the value of each parameter starts and ends
+ * (or where it has to be inserted when the attribute is missing); writing a
+ * variant copies the bytes in between and formats only the parameters.
+ * 
+ * Variants must be copies of the compiled model given to the constructor,
+ * models with a different structure are written by the
+ * {@link CompiledModelWriter}. Each thread writes through its own buffer.
+ */
+public class VariantWriter {
+
+	private static final int PROCESSOR_MULTIPLICITY = 0;
+	private static final int SPEED_FACTOR = 1;
+	private static final int TASK_MULTIPLICITY = 2;
+	private static final int THINK_TIME = 3;
+	private static final int HOST_DEMAND = 4;
+	private static final int CALLS_MEAN = 5;
+
+	private static final String[] ATTRIBUTES = { "multiplicity", "speed-factor", "multiplicity", "think-time",
+			"host-demand-mean", "calls-mean" };
+	/** values of the missing attributes, NaN for the required ones **/
+	private static final double[] DEFAULTS = { 1, 1, 1, 0, Double.NaN, Double.NaN };
+	private static final byte[][] INSERTED = new byte[ATTRIBUTES.length][];
+	/** longest number written, as by Double.toString **/
+	private static final int MAX_NUMBER_LENGTH = 32;
+
+	static {
+		for (int k = 0; k < ATTRIBUTES.length; k++)
+			INSERTED[k] = (" " + ATTRIBUTES[k] + "=\"").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private final CompiledModel model;
+	private final byte[] document;
+	// parameters in document order, the value of slot s is document[slotStart[s]] to document[slotEnd[s]-1]
+	private final int[] slotStart;
+	private final int[] slotEnd;
+	private final int[] slotKind;
+	private final int[] slotIndex;
+	/** value in the document, NaN when the attribute is missing **/
+	private final double[] slotOriginal;
+	private final int maxLength;
+	private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(maxLength);
+		}
+	};
+
+	/**
+	 * @throws IOException
+	 *             if the document of the model cannot be spliced: encodings
+	 *             other than UTF-8 and its subsets, DTD internal subsets,
+	 *             entities in the parameters or a document not matching the
+	 *             model
+	 */
+	public VariantWriter(CompiledModel model) throws IOException {
+		this.model = model;
+		document = model.getTemplate();
+		Scanner scanner = new Scanner();
+		scanner.scan();
+		int n = scanner.starts.size();
+		slotStart = new int[n];
+		slotEnd = new int[n];
+		slotKind = new int[n];
+		slotIndex = new int[n];
+		slotOriginal = new double[n];
+		for (int s = 0; s < n; s++) {
+			slotStart[s] = scanner.starts.get(s);
+			slotEnd[s] = scanner.ends.get(s);
+			slotKind[s] = scanner.kinds.get(s);
+			slotIndex[s] = scanner.indexes.get(s);
+			slotOriginal[s] = scanner.originals.get(s);
+		}
+		maxLength = document.length + n * (INSERTED[HOST_DEMAND].length + MAX_NUMBER_LENGTH + 1);
+	}
+
+	/**
+	 * Whether the model can be written by splicing
+	 */
+	public boolean accepts(CompiledModel variant) {
+		return model.sharesStructure(variant);
+	}
+
+	/**
+	 * Upper bound of the length of a variant
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public void write(CompiledModel variant, Path file) throws IOException {
+		if (!accepts(variant)) {
+			new CompiledModelWriter().write(variant, file);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(variant, channel);
+		}
+	}
+
+	public void write(CompiledModel variant, WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = buffers.get();
+		buffer.clear();
+		write(variant, buffer);
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Writes the variant at the position of the buffer, which must have
+	 * {@link #getMaxLength()} bytes remaining
+	 * 
+	 * @return the number of bytes written
+	 */
+	public int write(CompiledModel variant, ByteBuffer buffer) {
+		if (!accepts(variant))
+			throw new IllegalArgumentException("The model is not a variant of " + model.processorNames.length
+					+ " processors and " + model.taskNames.length + " tasks compiled by this writer");
+		int start = buffer.position();
+		int copied = 0;
+		for (int s = 0; s < slotStart.length; s++) {
+			buffer.put(document, copied, slotStart[s] - copied);
+			double value = value(variant, slotKind[s], slotIndex[s]);
+			if (value == slotOriginal[s])
+				buffer.put(document, slotStart[s], slotEnd[s] - slotStart[s]);
+			else if (Double.isNaN(slotOriginal[s])) {
+				if (value != DEFAULTS[slotKind[s]]) {
+					buffer.put(INSERTED[slotKind[s]]);
+					putNumber(buffer, value, isInteger(slotKind[s]));
+					buffer.put((byte) '"');
+				}
+			} else
+				putNumber(buffer, value, isInteger(slotKind[s]));
+			copied = slotEnd[s];
+		}
+		buffer.put(document, copied, document.length - copied);
+		return buffer.position() - start;
+	}
+
+	private static double value(CompiledModel variant, int kind, int index) {
+		switch (kind) {
+		case PROCESSOR_MULTIPLICITY:
+			return variant.processorMultiplicity[index];
+		case SPEED_FACTOR:
+			return variant.speedFactor[index];
+		case TASK_MULTIPLICITY:
+			return variant.taskMultiplicity[index];
+		case THINK_TIME:
+			return variant.thinkTime[index];
+		case HOST_DEMAND:
+			return variant.hostDemand[index];
+		default:
+			return variant.callMean[index];
+		}
+	}
+
+	private static boolean isInteger(int kind) {
+		return kind == PROCESSOR_MULTIPLICITY || kind == TASK_MULTIPLICITY;
+	}
+
+	/**
+	 * Writes the number with the fewest decimals (up to 6) that give back
+	 * the same double, as Double.toString does without allocating a string
+	 */
+	static void putNumber(ByteBuffer buffer, double value, boolean integer) {
+		if (integer) {
+			putDigits(buffer, (long) value, 0);
+			return;
+		}
+		if (Math.abs(value) < 1e9) {
+			long scale = 10;
+			for (int decimals = 1; decimals <= 6; decimals++, scale *= 10) {
+				long scaled = Math.round(value * scale);
+				if (scaled / (double) scale == value) {
+					putDigits(buffer, scaled, decimals);
+					return;
+				}
+			}
+		}
+		String text = Double.toString(value);
+		for (int i = 0; i < text.length(); i++)
+			buffer.put((byte) text.charAt(i));
+	}
+
+	/**
+	 * Writes value / 10^decimals with the given number of decimals
+	 */
+	private static void putDigits(ByteBuffer buffer, long value, int decimals) {
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		byte[] digits = new byte[20];
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0 || n <= decimals);
+		while (n > 0) {
+			if (n == decimals)
+				buffer.put((byte) '.');
+			buffer.put(digits[--n]);
+		}
+	}
+
+	/**
+	 * Finds the parameters in the document, counting the elements as the
+	 * {@link CompiledModelWriter} does
+	 */
+	private class Scanner {
+
+		private final List<Integer> starts = new ArrayList<Integer>();
+		private final List<Integer> ends = new ArrayList<Integer>();
+		private final List<Integer> kinds = new ArrayList<Integer>();
+		private final List<Integer> indexes = new ArrayList<Integer>();
+		private final List<Double> originals = new ArrayList<Double>();
+		private final Deque<String> parents = new ArrayDeque<String>();
+		private int processor, task, activity, call;
+
+		void scan() throws IOException {
+			byte[] d = document;
+			if (d.length >= 2 && (d[0] == (byte) 0xFE || d[0] == (byte) 0xFF || d[0] == 0 || d[1] == 0))
+				throw new IOException("Only UTF-8 and compatible encodings can be spliced");
+			int i = 0;
+			while (i < d.length) {
+				if (d[i] != '<')
+					i++;
+				else if (startsWith(i, "<?"))
+					i = skip(i, "?>");
+				else if (startsWith(i, "<!--"))
+					i = skip(i, "-->");
+				else if (startsWith(i, "<![CDATA["))
+					i = skip(i, "]]>");
+				else if (startsWith(i, "<!")) {
+					int end = skip(i, ">");
+					for (int k = i; k < end; k++)
+						if (d[k] == '[')
+							throw new IOException("DTD internal subsets cannot be spliced");
+					i = end;
+				} else if (startsWith(i, "</")) {
+					parents.pop();
+					i = skip(i, ">");
+				} else
+					i = startTag(i + 1);
+			}
+			if (processor != model.processorNames.length || task != model.taskNames.length
+					|| activity != model.activityNames.length || call != model.callDest.length)
+				throw new IOException("The template does not match the structure of the compiled model");
+		}
+
+		/**
+		 * Reads the start tag whose name begins at i
+		 * 
+		 * @return the position after the tag
+		 */
+		private int startTag(int i) throws IOException {
+			byte[] d = document;
+			int nameStart = i;
+			while (i < d.length && !isSpace(d[i]) && d[i] != '/' && d[i] != '>')
+				i++;
+			String element = localName(nameStart, i);
+			String parent = parents.peek();
+			int first = -1, index = 0;
+			if (element.equals("processor")) {
+				first = PROCESSOR_MULTIPLICITY;
+				index = processor++;
+			} else if (element.equals("task")) {
+				first = TASK_MULTIPLICITY;
+				index = task++;
+			} else if (element.equals("activity") && ("entry-phase-activities".equals(parent)
+					|| "task-activities".equals(parent) || "entry-activity-graph".equals(parent))) {
+				first = HOST_DEMAND;
+				index = activity++;
+			} else if ((element.equals("synch-call") || element.equals("asynch-call")) && "activity".equals(parent)) {
+				first = CALLS_MEAN;
+				index = call++;
+			}
+			int last = first == PROCESSOR_MULTIPLICITY || first == TASK_MULTIPLICITY ? first + 1 : first;
+			boolean[] found = new boolean[2];
+			int attributesEnd = i;
+			while (true) {
+				while (i < d.length && isSpace(d[i]))
+					i++;
+				if (i >= d.length)
+					throw new IOException("Unterminated tag " + element);
+				if (d[i] == '/' || d[i] == '>')
+					break;
+				int attributeStart = i;
+				while (i < d.length && d[i] != '=' && !isSpace(d[i]))
+					i++;
+				String attribute = new String(d, attributeStart, i - attributeStart, StandardCharsets.ISO_8859_1);
+				i = skip(i, "=");
+				while (i < d.length && isSpace(d[i]))
+					i++;
+				if (i >= d.length || (d[i] != '"' && d[i] != '\''))
+					throw new IOException("Unquoted attribute " + attribute + " of " + element);
+				byte quote = d[i];
+				int valueStart = ++i;
+				while (i < d.length && d[i] != quote)
+					i++;
+				if (first >= 0)
+					for (int kind = first; kind <= last; kind++)
+						if (ATTRIBUTES[kind].equals(attribute)) {
+							add(valueStart, i, kind, index, original(valueStart, i, element, attribute));
+							found[kind - first] = true;
+						}
+				attributesEnd = ++i;
+			}
+			for (int kind = first; first >= 0 && kind <= last; kind++)
+				if (!found[kind - first])
+					add(attributesEnd, attributesEnd, kind, index, Double.NaN);
+			if (d[i] == '>')
+				parents.push(element);
+			return skip(i, ">");
+		}
+
+		private void add(int start, int end, int kind, int index, double original) {
+			starts.add(start);
+			ends.add(end);
+			kinds.add(kind);
+			indexes.add(index);
+			originals.add(original);
+		}
+
+		private double original(int start, int end, String element, String attribute) throws IOException {
+			String value = new String(document, start, end - start, StandardCharsets.ISO_8859_1);
+			try {
+				return Double.parseDouble(value.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("The " + attribute + " of " + element + " is not a number: " + value);
+			}
+		}
+
+		private String localName(int start, int end) {
+			for (int k = end - 1; k >= start; k--)
+				if (document[k] == ':')
+					return new String(document, k + 1, end - k - 1, StandardCharsets.ISO_8859_1);
+			return new String(document, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		private boolean startsWith(int i, String prefix) {
+			if (i + prefix.length() > document.length)
+				return false;
+			for (int k = 0; k < prefix.length(); k++)
+				if (document[i + k] != prefix.charAt(k))
+					return false;
+			return true;
+		}
+
+		/**
+		 * @return the position after the first occurrence of the delimiter
+		 *         from i
+		 */
+		private int skip(int i, String delimiter) throws IOException {
+			for (; i < document.length; i++)
+				if (startsWith(i, delimiter))
+					return i + delimiter.length();
+			throw new IOException("Missing " + delimiter + " in the template");
+		}
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+}
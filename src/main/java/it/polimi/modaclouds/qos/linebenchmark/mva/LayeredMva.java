@@ -0,0 +1,380 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.mva;
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+import it.polimi.modaclouds.qos.linebenchmark.model.CompiledModel;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+
+import java.util.Arrays;
+
+/**
+ * Layered approximate MVA of an LQN model. Each processor is a queueing
+ * station whose classes are the tasks it hosts, each task a multi-server
+ * station whose customers are the requests of its callers; the stations are
+ * solved with the Bard-Schweitzer approximation and the layers are iterated
+ * until the throughputs and residence times change by less than the
+ * convergence value of the solver-params of the model.
+ * 
+ * The solution works on the arrays of a {@link CompiledModel}, the
+ * iterations do not allocate. Approximations: the branches of an AND fork
+ * are accounted as if executed in sequence, activities after the reply of an
+ * activity graph are still part of phase 1, forwarding and LQX variables are
+ * not supported.
+ */
+public class LayeredMva {
+
+	/** defaults of lqns when the model has no solver-params **/
+	private static final double DEFAULT_CONVERGENCE = 1e-5;
+	private static final int DEFAULT_ITERATION_LIMIT = 50;
+	private static final double DEFAULT_UNDERRELAXATION = 0.9;
+
+	private static final byte CALL_PHASE1 = 0;
+	private static final byte CALL_PHASE2 = 1;
+	private static final byte CALL_ASYNCH = 2;
+
+	// processors
+	private final String[] processorNames;
+	private final double[] speedFactor;
+	private final int[] processorMultiplicity;
+	private final boolean[] processorDelay;
+
+	// tasks, the entries of task t are taskEntries[t] to taskEntries[t+1]-1
+	private final String[] taskNames;
+	private final int[] taskProcessor;
+	private final int[] taskMultiplicity;
+	private final boolean[] taskReference;
+	private final boolean[] taskDelay;
+	private final double[] thinkTime;
+	private final int[] taskEntries;
+	/** maximum number of requests at a task, waiting for a thread or served **/
+	private final double[] population;
+	/** maximum number of requests a task can be serving at once, its threads **/
+	private final double[] servers;
+
+	// entries, the calls of entry e are callStart[e] to callStart[e+1]-1
+	private final String[] entryNames;
+	private final int[] entryTask;
+	private final double[] demand1;
+	private final double[] demand2;
+	private final int[] callStart;
+	private final int[] callDest;
+	private final double[] callMean;
+	private final byte[] callKind;
+	/** entries sorted so that callers come before the entries they call **/
+	private final int[] order;
+
+	private final double convergence;
+	private final int iterationLimit;
+	private final double underrelaxation;
+
+	// solution
+	private final double[] throughput;
+	private final double[] phase1;
+	private final double[] phase2;
+	private final double[] residence1;
+	private final double[] residence2;
+	private final double[] waiting;
+	private int iterations;
+	private boolean converged;
+
+	/**
+	 * Compiles the model
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the model can not be solved: undefined entries, cyclic
+	 *             calls, values that are not numbers
+	 */
+	public LayeredMva(LqnModelType model) {
+		this(CompiledModel.compile(model));
+	}
+
+	/**
+	 * Prepares the solution of a compiled model, the parameters of the model
+	 * are read now and later changes are not seen
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the calls between entries are cyclic
+	 */
+	public LayeredMva(CompiledModel model) {
+		processorNames = model.processorNames;
+		speedFactor = model.speedFactor.clone();
+		processorMultiplicity = model.processorMultiplicity.clone();
+		processorDelay = model.processorInfinite;
+
+		int t = model.taskNames.length;
+		taskNames = model.taskNames;
+		taskProcessor = model.taskProcessor;
+		taskMultiplicity = model.taskMultiplicity.clone();
+		taskReference = model.taskReference;
+		taskDelay = model.taskInfinite;
+		thinkTime = model.thinkTime.clone();
+		taskEntries = model.taskEntryStart;
+		population = new double[t];
+		servers = new double[t];
+
+		// demands and calls of each entry, summed over the activities it executes
+		int e = model.entryNames.length;
+		entryNames = model.entryNames;
+		entryTask = model.entryTask;
+		demand1 = new double[e];
+		demand2 = new double[e];
+		callStart = new int[e + 1];
+		for (int i = 0; i < e; i++) {
+			int calls = 0;
+			for (int k = model.entryActivityStart[i]; k < model.entryActivityStart[i + 1]; k++) {
+				int a = model.entryActivity[k];
+				calls += model.callStart[a + 1] - model.callStart[a];
+			}
+			callStart[i + 1] = callStart[i] + calls;
+		}
+		callDest = new int[callStart[e]];
+		callMean = new double[callStart[e]];
+		callKind = new byte[callStart[e]];
+		for (int i = 0; i < e; i++) {
+			int c = callStart[i];
+			for (int k = model.entryActivityStart[i]; k < model.entryActivityStart[i + 1]; k++) {
+				int a = model.entryActivity[k];
+				double visits = model.entryActivityVisits[k];
+				boolean secondPhase = model.activityPhase[a] > 1;
+				if (secondPhase)
+					demand2[i] += visits * model.hostDemand[a];
+				else
+					demand1[i] += visits * model.hostDemand[a];
+				for (int m = model.callStart[a]; m < model.callStart[a + 1]; m++, c++) {
+					callDest[c] = model.callDest[m];
+					callMean[c] = visits * model.callMean[m];
+					callKind[c] = model.callAsynch[m] ? CALL_ASYNCH : secondPhase ? CALL_PHASE2 : CALL_PHASE1;
+				}
+			}
+		}
+		order = callersFirst();
+		computePopulations();
+
+		convergence = model.convergence > 0 ? model.convergence : DEFAULT_CONVERGENCE;
+		iterationLimit = model.iterationLimit > 0 ? model.iterationLimit : DEFAULT_ITERATION_LIMIT;
+		underrelaxation = model.underrelaxation > 0 ? model.underrelaxation : DEFAULT_UNDERRELAXATION;
+
+		throughput = new double[e];
+		phase1 = new double[e];
+		phase2 = new double[e];
+		residence1 = new double[e];
+		residence2 = new double[e];
+		waiting = new double[t];
+	}
+
+	/**
+	 * Orders the entries so that each entry comes before the ones it calls
+	 */
+	private int[] callersFirst() {
+		int e = entryNames.length;
+		int[] callers = new int[e];
+		for (int c = 0; c < callDest.length; c++)
+			callers[callDest[c]]++;
+		int[] sorted = new int[e];
+		int head = 0, tail = 0;
+		for (int i = 0; i < e; i++)
+			if (callers[i] == 0)
+				sorted[tail++] = i;
+		while (head < tail) {
+			int i = sorted[head++];
+			for (int c = callStart[i]; c < callStart[i + 1]; c++)
+				if (--callers[callDest[c]] == 0)
+					sorted[tail++] = callDest[c];
+		}
+		if (tail < e)
+			throw new IllegalArgumentException("Cyclic calls between entries");
+		return sorted;
+	}
+
+	/**
+	 * The requests at a task are bounded by the customers of its callers and
+	 * by the customers of the reference tasks. Only as many as its threads,
+	 * unless it is an infinite server, are served at once, the others wait
+	 * for a thread.
+	 */
+	private void computePopulations() {
+		int t = taskNames.length;
+		double customers = 0;
+		for (int i = 0; i < t; i++)
+			if (taskReference[i]) {
+				population[i] = taskMultiplicity[i];
+				customers += taskMultiplicity[i];
+			}
+		boolean[][] calling = new boolean[t][t];
+		for (int i = 0; i < entryNames.length; i++)
+			for (int c = callStart[i]; c < callStart[i + 1]; c++)
+				calling[entryTask[i]][entryTask[callDest[c]]] = true;
+		// the tasks of the entries in callers first order are in callers first order
+		boolean[] done = new boolean[t];
+		for (int k = 0; k < order.length; k++) {
+			int task = entryTask[order[k]];
+			if (done[task] || taskReference[task])
+				continue;
+			done[task] = true;
+			double callers = 0;
+			for (int c = 0; c < t; c++)
+				if (calling[c][task] && c != task)
+					callers += population[c];
+			population[task] = Math.min(callers, customers);
+		}
+		for (int i = 0; i < t; i++)
+			servers[i] = taskDelay[i] || taskReference[i] ? population[i] : Math.min(population[i], taskMultiplicity[i]);
+	}
+
+	/**
+	 * Iterates the layers until convergence or the iteration limit
+	 * 
+	 * @return true if the solution has converged
+	 */
+	public boolean solve() {
+		int e = entryNames.length;
+		int t = taskNames.length;
+		double[] taskQueue = new double[t];
+		double[] processorQueue = new double[processorNames.length];
+		for (int i = 0; i < e; i++) {
+			residence1[i] = demand1[i] / speedFactor[taskProcessor[entryTask[i]]];
+			residence2[i] = demand2[i] / speedFactor[taskProcessor[entryTask[i]]];
+		}
+		Arrays.fill(waiting, 0);
+		converged = false;
+		for (iterations = 1; iterations <= iterationLimit && !converged; iterations++) {
+			double change = 0;
+
+			// service times, the called entries first
+			for (int k = e - 1; k >= 0; k--) {
+				int i = order[k];
+				double s1 = residence1[i];
+				double s2 = residence2[i];
+				for (int c = callStart[i]; c < callStart[i + 1]; c++) {
+					int dest = callDest[c];
+					if (callKind[c] == CALL_PHASE1)
+						s1 += callMean[c] * (waiting[entryTask[dest]] + phase1[dest]);
+					else if (callKind[c] == CALL_PHASE2)
+						s2 += callMean[c] * (waiting[entryTask[dest]] + phase1[dest]);
+				}
+				phase1[i] = s1;
+				phase2[i] = s2;
+			}
+
+			// throughputs, from the reference tasks down
+			for (int i = 0; i < t; i++) {
+				double cycle = thinkTime[i];
+				for (int j = taskEntries[i]; j < taskEntries[i + 1]; j++)
+					cycle += phase1[j] + phase2[j];
+				for (int j = taskEntries[i]; j < taskEntries[i + 1]; j++) {
+					double previous = throughput[j];
+					throughput[j] = taskReference[i] && cycle > 0 ? population[i] / cycle : 0;
+					if (taskReference[i])
+						change = Math.max(change, relativeChange(previous, throughput[j]));
+				}
+			}
+			for (int k = 0; k < e; k++) {
+				int i = order[k];
+				for (int c = callStart[i]; c < callStart[i + 1]; c++)
+					throughput[callDest[c]] += throughput[i] * callMean[c];
+			}
+
+			// processors, one class for each task
+			Arrays.fill(processorQueue, 0);
+			for (int i = 0; i < t; i++) {
+				taskQueue[i] = 0;
+				for (int j = taskEntries[i]; j < taskEntries[i + 1]; j++)
+					taskQueue[i] += throughput[j] * (residence1[j] + residence2[j]);
+				processorQueue[taskProcessor[i]] += taskQueue[i];
+			}
+			for (int i = 0; i < e; i++) {
+				int task = entryTask[i];
+				int processor = taskProcessor[task];
+				double seen = 0;
+				if (!processorDelay[processor]) {
+					// Bard-Schweitzer: an arrival does not see itself, among the requests its task is serving
+					seen = processorQueue[processor] - (servers[task] > 0 ? taskQueue[task] / servers[task] : 0);
+					seen = Math.max(seen, 0) / processorMultiplicity[processor];
+				}
+				double r1 = demand1[i] / speedFactor[processor] * (1 + seen);
+				double r2 = demand2[i] / speedFactor[processor] * (1 + seen);
+				change = Math.max(change, relativeChange(residence1[i], r1));
+				residence1[i] += underrelaxation * (r1 - residence1[i]);
+				residence2[i] += underrelaxation * (r2 - residence2[i]);
+			}
+
+			// tasks, waiting for a free thread
+			for (int i = 0; i < t; i++) {
+				if (taskReference[i])
+					continue;
+				double w = 0;
+				if (!taskDelay[i] && population[i] > taskMultiplicity[i]) {
+					double requests = 0, busy = 0, queue = 0;
+					for (int j = taskEntries[i]; j < taskEntries[i + 1]; j++) {
+						requests += throughput[j];
+						busy += throughput[j] * (phase1[j] + phase2[j]);
+						queue += throughput[j] * (waiting[i] + phase1[j] + phase2[j]);
+					}
+					if (requests > 0)
+						w = busy / requests / taskMultiplicity[i] * queue * (population[i] - 1) / population[i];
+				}
+				change = Math.max(change, relativeChange(waiting[i], w));
+				waiting[i] += underrelaxation * (w - waiting[i]);
+			}
+			converged = change < convergence;
+		}
+		iterations--;
+		return converged;
+	}
+
+	private static double relativeChange(double previous, double current) {
+		double scale = Math.max(Math.abs(previous), Math.abs(current));
+		return scale == 0 ? 0 : Math.abs(current - previous) / scale;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * Utilization and throughput of processors, tasks and entries, with the
+	 * service time of tasks and entries
+	 */
+	public SolutionResult getResult() {
+		SolutionResult.Builder builder = new SolutionResult.Builder();
+		for (int p = 0; p < processorNames.length; p++) {
+			double utilization = 0;
+			for (int i = 0; i < entryNames.length; i++)
+				if (taskProcessor[entryTask[i]] == p)
+					utilization += throughput[i] * (demand1[i] + demand2[i]) / speedFactor[p];
+			builder.add(Level.PROCESSOR, processorNames[p], utilization, Double.NaN, Double.NaN);
+		}
+		for (int t = 0; t < taskNames.length; t++) {
+			double requests = 0, busy = 0;
+			for (int i = taskEntries[t]; i < taskEntries[t + 1]; i++) {
+				requests += throughput[i];
+				busy += throughput[i] * (phase1[i] + phase2[i]);
+			}
+			builder.add(Level.TASK, taskNames[t], busy, requests, requests > 0 ? busy / requests : Double.NaN);
+		}
+		for (int i = 0; i < entryNames.length; i++)
+			builder.add(Level.ENTRY, entryNames[i], throughput[i] * (phase1[i] + phase2[i]), throughput[i],
+					phase1[i] + phase2[i]);
+		return builder.build();
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Configuration shared by the solvers: the version, the timeout of a single
+ * evaluation and the cpus the solver is pinned to, read from the properties
+ * prefixed by the lower case name of the solver.
+ */
+public abstract class AbstractSolver implements Solver {
+
+	private final String name;
+	private String version;
+	/** milliseconds after which an evaluation is abandoned, 0 for no limit **/
+	protected long timeout;
+	/** cpus the solver processes are pinned to (taskset list), null to use all **/
+	protected String cpuSet;
+
+	protected AbstractSolver(String name, String defaultVersion) {
+		this.name = name;
+		this.version = defaultVersion;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getVersion() {
+		return version;
+	}
+
+	@Override
+	public String getOptions() {
+		return "";
+	}
+
+	@Override
+	public void init(Properties properties) throws IOException {
+		version = property(properties, "Version", version);
+		timeout = Long.parseLong(property(properties, "Timeout", "0"));
+		cpuSet = property(properties, "CpuSet", null);
+	}
+
+	/**
+	 * Reads the property of this solver, e.g. lqnsTimeout for the Timeout
+	 * suffix of LQNS
+	 */
+	protected String property(Properties properties, String suffix, String defaultValue) {
+		return properties.getProperty(name.toLowerCase() + suffix, defaultValue);
+	}
+
+	/**
+	 * The results are written next to the model, with the extension
+	 * replaced by the suffix
+	 */
+	protected static Path replaceExtension(Path model, String suffix) {
+		String base = model.toString().substring(0, model.toString().lastIndexOf('.'));
+		return Paths.get(base + suffix);
+	}
+
+	@Override
+	public void logStatistics() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the completed evaluations, one line per (model
+ * hash, solver, trial). The entries of previous runs are loaded when the
+ * journal is opened so that a run can resume where it stopped. New entries
+ * are written by a dedicated thread which appends all the entries waiting
+ * and then syncs the file, so that syncs are batched under load.
+ * <p>
+ * A journal of a run with generated models starts with a header holding
+ * the seed, so that a resumed run generates the same variants.
+ */
+public class CompletionJournal {
+
+	private static final String SEPARATOR = "\t";
+	private static final String SEED_HEADER = "#seed";
+	/** tells the writer there are no more entries **/
+	private static final String END = new String("END");
+	private static final Logger logger = LoggerFactory.getLogger(CompletionJournal.class);
+
+	private final Set<String> completed = ConcurrentHashMap.newKeySet();
+	private final BlockingQueue<String> entries = new LinkedBlockingQueue<>();
+	private final FileChannel channel;
+	private final Thread writer;
+
+	public CompletionJournal(Path file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * @param seed
+	 *            seed of the generated models, written in the header of a
+	 *            new journal, null when the models are not generated
+	 */
+	public CompletionJournal(Path file, String seed) throws IOException {
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		// the last line may have been cut off by a crash: it is dropped, so that it is neither
+		// loaded with a truncated trial number nor continued by the next entries
+		channel.truncate(lastLineEnd(channel));
+		channel.position(channel.size());
+		String journalSeed = null;
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String[] fields = line.split(SEPARATOR);
+			if (fields.length == 2 && fields[0].equals(SEED_HEADER))
+				journalSeed = fields[1];
+			else if (isEntry(fields))
+				completed.add(line);
+		}
+		logger.info("Journal " + file.toAbsolutePath() + ": " + completed.size() + " evaluations already completed");
+		if (seed != null && journalSeed != null && !seed.equals(journalSeed))
+			logger.warn("Journal " + file + " was written with seed " + journalSeed + ", the models generated with seed "
+					+ seed + " will not match its entries");
+		if (channel.size() == 0 && seed != null)
+			append(SEED_HEADER + SEPARATOR + seed + "\n");
+		writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				write();
+			}
+		}, "completion-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * The seed in the header of the journal, null when the journal does not
+	 * exist or has no seed
+	 */
+	public static String readSeed(Path file) throws IOException {
+		if (!Files.exists(file))
+			return null;
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String[] fields = line.split(SEPARATOR);
+			if (fields.length == 2 && fields[0].equals(SEED_HEADER))
+				return fields[1];
+		}
+		return null;
+	}
+
+	/**
+	 * Complete entries have a model hash, a solver and a trial number
+	 */
+	private static boolean isEntry(String[] fields) {
+		if (fields.length != 3)
+			return false;
+		try {
+			Integer.parseInt(fields[2]);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Position just after the last new line of the file, 0 when there is
+	 * none
+	 */
+	private static long lastLineEnd(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long end = channel.size();
+		while (end > 0) {
+			long start = Math.max(0, end - buffer.capacity());
+			buffer.clear();
+			buffer.limit((int) (end - start));
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, start + buffer.position()) < 0)
+					throw new IOException("Journal truncated while reading it");
+			for (int i = buffer.limit() - 1; i >= 0; i--)
+				if (buffer.get(i) == '\n')
+					return start + i + 1;
+			end = start;
+		}
+		return 0;
+	}
+
+	private void append(String lines) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		channel.force(false);
+	}
+
+	private static String entry(String modelHash, String solver, int trial) {
+		return modelHash + SEPARATOR + solver + SEPARATOR + trial;
+	}
+
+	public boolean isCompleted(String modelHash, String solver, int trial) {
+		return completed.contains(entry(modelHash, solver, trial));
+	}
+
+	public int size() {
+		return completed.size();
+	}
+
+	/**
+	 * Queues the entry, it is on disk once the next batch has been synced
+	 */
+	public void record(String modelHash, String solver, int trial) {
+		String entry = entry(modelHash, solver, trial);
+		if (completed.add(entry))
+			entries.add(entry);
+	}
+
+	private void write() {
+		List<String> batch = new ArrayList<>();
+		boolean end = false;
+		try {
+			while (!end) {
+				batch.add(entries.take());
+				entries.drainTo(batch);
+				StringBuilder lines = new StringBuilder();
+				for (String entry : batch)
+					if (entry == END)
+						end = true;
+					else
+						lines.append(entry).append('\n');
+				append(lines.toString());
+				batch.clear();
+			}
+		} catch (IOException e) {
+			logger.error("Error in writing the journal", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.error("Error in closing the journal", e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the entries still waiting and closes the journal
+	 */
+	public void close() {
+		entries.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -18,6 +18,7 @@ package it.polimi.modaclouds.qos.linebenchmark.solver;
 
 import java.awt.event.ActionEvent;
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 
 public class EvaluationCompletedEvent extends ActionEvent {
 
@@ -28,16 +29,32 @@ public class EvaluationCompletedEvent extends ActionEvent {
 	private Path modelPath;
 	private String solverName;
 	private long evaluationTime;
+	private long evaluationTimeNanos;
+	private EvaluationStatus status = EvaluationStatus.SUCCESS;
+	private SolutionResult solutionResult;
+	private ProcessResources resources;
+	/** id of the LINE request, -1 if unknown **/
+	private long requestId = -1;
 
 	public EvaluationCompletedEvent(Object source, int id, String command) {
 		super(source, id, command);
 		// TODO Auto-generated constructor stub
 	}
 
+	/**
+	 * @return the evaluation time in milliseconds
+	 */
 	public long getEvaluationTime() {
 		return evaluationTime;
 	}
 
+	/**
+	 * @return the evaluation time in nanoseconds
+	 */
+	public long getEvaluationTimeNanos() {
+		return evaluationTimeNanos;
+	}
+
 	public Path getModelPath() {
 		return modelPath;
 	}
@@ -46,8 +63,25 @@ public class EvaluationCompletedEvent extends ActionEvent {
 		return solverName;
 	}
 
+	public EvaluationStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the metrics parsed from the result file, null if not available
+	 */
+	public SolutionResult getSolutionResult() {
+		return solutionResult;
+	}
+
 	public void setEvaluationTime(long evaluationTime) {
 		this.evaluationTime = evaluationTime;
+		this.evaluationTimeNanos = TimeUnit.MILLISECONDS.toNanos(evaluationTime);
+	}
+
+	public void setEvaluationTimeNanos(long evaluationTimeNanos) {
+		this.evaluationTimeNanos = evaluationTimeNanos;
+		this.evaluationTime = TimeUnit.NANOSECONDS.toMillis(evaluationTimeNanos);
 	}
 
 	public void setModelPath(Path modelPath) {
@@ -58,4 +92,31 @@ public class EvaluationCompletedEvent extends ActionEvent {
 		this.solverName = solverName;
 	}
 
+	public void setStatus(EvaluationStatus status) {
+		this.status = status;
+	}
+
+	/**
+	 * @return the resources used by the solver process, null if not measured
+	 */
+	public ProcessResources getResources() {
+		return resources;
+	}
+
+	public void setResources(ProcessResources resources) {
+		this.resources = resources;
+	}
+
+	public void setSolutionResult(SolutionResult solutionResult) {
+		this.solutionResult = solutionResult;
+	}
+
+	public long getRequestId() {
+		return requestId;
+	}
+
+	public void setRequestId(long requestId) {
+		this.requestId = requestId;
+	}
+
 }
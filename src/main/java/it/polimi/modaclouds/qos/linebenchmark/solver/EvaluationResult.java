@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable result of the evaluation of one model with one solver.
+ */
+public class EvaluationResult {
+
+	private final Path modelPath;
+	private final String solverName;
+	private final long evaluationTimeNanos;
+	private final EvaluationStatus status;
+	/** true when the result comes from the cache and has not been measured in this run **/
+	private final boolean cached;
+	private final SolutionResult solutionResult;
+	private final ProcessResources resources;
+
+	public EvaluationResult(Path modelPath, String solverName, long evaluationTimeNanos, EvaluationStatus status) {
+		this(modelPath, solverName, evaluationTimeNanos, status, false, null);
+	}
+
+	public EvaluationResult(Path modelPath, String solverName, long evaluationTimeNanos, EvaluationStatus status, boolean cached) {
+		this(modelPath, solverName, evaluationTimeNanos, status, cached, null);
+	}
+
+	public EvaluationResult(Path modelPath, String solverName, long evaluationTimeNanos, EvaluationStatus status, boolean cached,
+			SolutionResult solutionResult) {
+		this(modelPath, solverName, evaluationTimeNanos, status, cached, solutionResult, null);
+	}
+
+	public EvaluationResult(Path modelPath, String solverName, long evaluationTimeNanos, EvaluationStatus status, boolean cached,
+			SolutionResult solutionResult, ProcessResources resources) {
+		this.modelPath = modelPath;
+		this.solverName = solverName;
+		this.evaluationTimeNanos = evaluationTimeNanos;
+		this.status = status;
+		this.cached = cached;
+		this.solutionResult = solutionResult;
+		this.resources = resources;
+	}
+
+	public EvaluationResult(EvaluationCompletedEvent event) {
+		this(event.getModelPath(), event.getSolverName(), event.getEvaluationTimeNanos(), event.getStatus(), false,
+				event.getSolutionResult(), event.getResources());
+	}
+
+	/**
+	 * Copy of this result with the metrics parsed from the result file
+	 */
+	public EvaluationResult withSolutionResult(SolutionResult solutionResult) {
+		return new EvaluationResult(modelPath, solverName, evaluationTimeNanos, status, cached, solutionResult, resources);
+	}
+
+	public Path getModelPath() {
+		return modelPath;
+	}
+
+	public String getSolverName() {
+		return solverName;
+	}
+
+	/**
+	 * @return the evaluation time in milliseconds
+	 */
+	public long getEvaluationTime() {
+		return TimeUnit.NANOSECONDS.toMillis(evaluationTimeNanos);
+	}
+
+	/**
+	 * @return the evaluation time in nanoseconds
+	 */
+	public long getEvaluationTimeNanos() {
+		return evaluationTimeNanos;
+	}
+
+	public EvaluationStatus getStatus() {
+		return status;
+	}
+
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * @return the resources used by the solver process, null if not measured
+	 */
+	public ProcessResources getResources() {
+		return resources;
+	}
+
+	/**
+	 * @return the metrics computed by the solver, null if not parsed
+	 */
+	public SolutionResult getSolutionResult() {
+		return solutionResult;
+	}
+
+	@Override
+	public String toString() {
+		return solverName+" "+modelPath+" "+status+" "+TimeUnit.NANOSECONDS.toMicros(evaluationTimeNanos)/1000.0+"ms"+(cached ? " (cached)" : "")
+				+(resources != null ? " "+resources : "");
+	}
+
+}
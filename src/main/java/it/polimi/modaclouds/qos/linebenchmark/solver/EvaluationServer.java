@@ -20,16 +20,31 @@
 package it.polimi.modaclouds.qos.linebenchmark.solver;
 
 
-import it.polimi.modaclouds.qos.linebenchmark.main.Main;
+import it.polimi.modaclouds.qos.linebenchmark.stats.ResultSink;
+import it.polimi.modaclouds.qos.linebenchmark.worker.RemoteSolver;
+import it.polimi.modaclouds.qos.linebenchmark.worker.WorkerPool;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,122 +53,426 @@ import org.slf4j.LoggerFactory;
  * @author Michele Ciavotta
  * 
  */
-public class EvaluationServer implements ActionListener {
+public class EvaluationServer {
 
-	private ExecutorService executor;
-	private LineServerHandler handler;
-	private Map<Path, Long> lineEvaluationTimes = new HashMap<Path, Long>();
-	private Map<Path, Long> lqnsEvaluationTimes = new HashMap<Path, Long>();
-	//private int nMaxThreads = Runtime.getRuntime().availableProcessors(); //does not allow the queue to grow, should wnsure immediate evaluation
-	private int nMaxThreads = 200;
+	/** queue policies applied when the submission queue of a solver is full **/
+	public static final String QUEUE_POLICY_BLOCK = "block";
+	public static final String QUEUE_POLICY_REJECT = "reject";
 
+	private static final int DEFAULT_QUEUE_CAPACITY = 1000;
 
-	private int totalNumberOfEvaluations = 0;
+	/** the enabled solvers, in the order they are run in **/
+	private Map<String, Solver> solvers = new LinkedHashMap<String, Solver>();
+	/** one bounded executor for each solver, so that a solver can not be oversubscribed **/
+	private Map<String, ThreadPoolExecutor> executors = new HashMap<String, ThreadPoolExecutor>();
+	/** results of models already solved, null when caching is disabled **/
+	private ResultCache cache;
+	private final Map<String, LongAdder> cacheHits = new HashMap<String, LongAdder>();
+	/** parses the result files so that the solver threads are free for the next model **/
+	private ExecutorService parserExecutor;
+	/** record of each completed evaluation, null when disabled **/
+	private ResultSink sink;
+	/** evaluations completed in this and previous runs, null when disabled **/
+	private CompletionJournal journal;
+	private final LongAdder skippedEvaluations = new LongAdder();
+	/** evaluations submitted and not yet completed **/
+	private Set<CompletableFuture<EvaluationResult>> inFlight = ConcurrentHashMap.newKeySet();
 
-	private int pendingLineEvaluations = 0;
-	private int pendingLqnsEvaluations = 0;
+
+	/**
+	 * Completion counters, updated by every solver and parser thread. The
+	 * maps are filled by the constructor and only read afterwards.
+	 */
+	private final LongAdder completedEvaluations = new LongAdder();
+	private final Map<String, LongAdder> pendingEvaluations = new HashMap<String, LongAdder>();
 
 	private boolean parallel = true;
-	private final Logger logger = LoggerFactory.getLogger("timeLogger");
+	private static final Logger logger = LoggerFactory.getLogger(EvaluationServer.class);
 
 	/**
 	 * 
 	 */
 	public EvaluationServer(boolean parallel) {
+		this(parallel, new Properties());
+	}
+
+	/**
+	 * Builds the server reading the scheduler configuration from the
+	 * evaluation properties. solvers lists the names of the solvers to run,
+	 * in order (defaults to all the solvers found on the class path). Each
+	 * solver reads its own properties, and its concurrency from e.g.
+	 * lqnsConcurrency (defaults to the limit of the solver). queueCapacity
+	 * and queuePolicy (block or reject) apply to every solver.
+	 * When cache is true results are looked up in cacheDirectory, keyed also
+	 * by the version of the solver, before solving a model. Result files
+	 * are parsed by parserThreads threads (default 1).
+	 * Each completed evaluation is appended to resultsFile in resultsFormat
+	 * (csv or jsonl), an empty resultsFile disables the records. When
+	 * journalFile is set the evaluations completed in previous runs are
+	 * skipped. When workers lists host:port addresses of
+	 * {@link it.polimi.modaclouds.qos.linebenchmark.worker.EvaluationWorker}s
+	 * the models are shipped to them instead of being solved locally, with
+	 * the solvers they run.
+	 */
+	public EvaluationServer(boolean parallel, Properties properties) {
 
 		this.parallel = parallel;
-		if (!parallel)
-			nMaxThreads = 1;
-		// initialize the thread pool
-		executor = Executors.newCachedThreadPool();
 
-		// launch LINE
-		handler = new LineServerHandler();
-		handler.connectToLINEServer();
+		String resultsFile = properties.getProperty("resultsFile", "log/results.csv");
+		if (!resultsFile.isEmpty())
+			try {
+				sink = new ResultSink(Paths.get(resultsFile), properties.getProperty("resultsFormat", ResultSink.FORMAT_CSV));
+			} catch (IOException e) {
+				logger.error("Could not open the result file "+resultsFile, e);
+			}
+		String journalFile = properties.getProperty("journalFile", "");
+		if (!journalFile.isEmpty())
+			try {
+				journal = new CompletionJournal(Paths.get(journalFile),
+						Boolean.valueOf(properties.getProperty("random")) ? properties.getProperty("seed") : null);
+			} catch (IOException e) {
+				logger.error("Could not open the journal "+journalFile+", the run will not be resumable", e);
+			}
+		parserExecutor = Executors.newFixedThreadPool(Integer.parseInt(properties.getProperty("parserThreads", "1")));
+		if (Boolean.valueOf(properties.getProperty("cache", "false")))
+			try {
+				cache = new ResultCache(Paths.get(properties.getProperty("cacheDirectory", "cache")));
+			} catch (IOException e) {
+				logger.error("Could not open the result cache, caching disabled", e);
+			}
+
+		// initialize the solvers, each with its own bounded thread pool
+		int queueCapacity = Integer.parseInt(properties.getProperty("queueCapacity", ""+DEFAULT_QUEUE_CAPACITY));
+		String queuePolicy = properties.getProperty("queuePolicy", QUEUE_POLICY_BLOCK);
+		String workers = properties.getProperty("workers", "");
+		List<Solver> selected = workers.trim().isEmpty() ? loadSolvers(properties.getProperty("solvers", ""))
+				: remoteSolvers(workers, properties.getProperty("solvers", ""));
+		for (Solver solver : selected) {
+			String prefix = solver.getName().toLowerCase();
+			try {
+				solver.init(properties);
+			} catch (IOException e) {
+				logger.error("Could not initialize solver "+solver.getName()+", its evaluations will be rejected", e);
+				continue;
+			}
+			if (properties.containsKey(prefix+"Timeout") && !solver.getCapabilities().contains(Solver.Capability.TIMEOUT))
+				logger.warn(solver.getName()+" does not support timeouts, "+prefix+"Timeout is ignored");
+			int concurrency = Integer.parseInt(properties.getProperty(prefix+"Concurrency", ""+solver.getConcurrencyLimit()));
+			solvers.put(solver.getName(), solver);
+			executors.put(solver.getName(), buildExecutor(concurrency, queueCapacity, queuePolicy));
+			cacheHits.put(solver.getName(), new LongAdder());
+			pendingEvaluations.put(solver.getName(), new LongAdder());
+			logger.info("Scheduler: "+solver.getName()+" "+solver.getVersion()+" concurrency "+concurrency
+					+", queue capacity "+queueCapacity+", queue policy "+queuePolicy);
+		}
+
+	}
 
+	/**
+	 * Finds the solvers on the class path, only the listed ones in the listed
+	 * order when the list is not empty
+	 */
+	private static List<Solver> loadSolvers(String names) {
+		Map<String, Solver> available = new LinkedHashMap<String, Solver>();
+		for (Solver solver : ServiceLoader.load(Solver.class))
+			available.put(solver.getName(), solver);
+		if (names.trim().isEmpty())
+			return new ArrayList<Solver>(available.values());
+		List<Solver> selected = new ArrayList<Solver>();
+		for (String name : names.split(",")) {
+			Solver solver = available.get(name.trim());
+			if (solver == null)
+				throw new IllegalArgumentException("Unknown solver: "+name.trim()+", available: "+available.keySet());
+			selected.add(solver);
+		}
+		return selected;
 	}
 
-	@Override
-	public synchronized void actionPerformed(ActionEvent e) {
-		if (e instanceof EvaluationCompletedEvent) {
-			EvaluationCompletedEvent completion = (EvaluationCompletedEvent) e;
-			if (completion.getSolverName().equals(Main.LINE_SOLVER)){
-				lineEvaluationTimes.put(completion.getModelPath(),
-						completion.getEvaluationTime());
-				decrementPendingLineEvaluations();
+	/**
+	 * Connects to the workers, the listed solvers in the listed order must
+	 * be run by at least one of them
+	 */
+	private static List<Solver> remoteSolvers(String workers, String names) {
+		WorkerPool pool;
+		try {
+			pool = new WorkerPool(workers);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		List<String> available = pool.getSolverNames();
+		List<String> selected = new ArrayList<String>();
+		if (names.trim().isEmpty())
+			selected.addAll(available);
+		else
+			for (String name : names.split(",")) {
+				if (!available.contains(name.trim())) {
+					pool.close();
+					throw new IllegalArgumentException("No worker runs solver "+name.trim()+", available: "+available);
+				}
+				selected.add(name.trim());
 			}
-			if (completion.getSolverName().equals(Main.LQNS_SOLVER)){
-				lqnsEvaluationTimes.put(completion.getModelPath(),
-						completion.getEvaluationTime());
-				decrementPendingLqnsEvaluations();
+		List<Solver> solvers = new ArrayList<Solver>();
+		for (String name : selected)
+			solvers.add(new RemoteSolver(name, pool));
+		return solvers;
+	}
+
+	/**
+	 * Names of the enabled solvers, in the order they are run in
+	 */
+	public List<String> getSolverNames() {
+		return new ArrayList<String>(solvers.keySet());
+	}
+
+	/**
+	 * The enabled solver with the name, null if it is not enabled
+	 */
+	public Solver getSolver(String name) {
+		return solvers.get(name);
+	}
+
+	private static ThreadPoolExecutor buildExecutor(int concurrency, int queueCapacity, String queuePolicy) {
+		RejectedExecutionHandler policy;
+		if (queuePolicy.equals(QUEUE_POLICY_REJECT))
+			policy = new ThreadPoolExecutor.AbortPolicy();
+		else if (queuePolicy.equals(QUEUE_POLICY_BLOCK))
+			policy = new BlockWhenFullPolicy();
+		else
+			throw new IllegalArgumentException("Unknown queue policy: "+queuePolicy);
+		return new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), policy);
+	}
+
+	/**
+	 * Submits the model to the solver. The returned future is completed
+	 * as soon as the solver has finished, so that further processing can
+	 * be chained on each model.
+	 */
+	public CompletableFuture<EvaluationResult> evaluateModel(Path lqnModelPath, String solver) {
+		return evaluateModel(lqnModelPath, solver, 0);
+	}
+
+	/**
+	 * Submits a trial of the model to the solver, the trial is negative for
+	 * warm-up iterations. Trials already in the journal are not evaluated
+	 * again and complete as SKIPPED.
+	 */
+	public CompletableFuture<EvaluationResult> evaluateModel(final Path lqnModelPath, final String solver, final int trial) {
+		final long submitted = System.currentTimeMillis();
+
+		// the content of the model identifies it in the cache and in the journal
+		byte[] modelDigest = null;
+		if (cache != null || journal != null)
+			try {
+				modelDigest = ResultCache.modelDigest(lqnModelPath);
+			} catch (IOException e) {
+				logger.warn("Could not compute the hash of model "+lqnModelPath, e);
 			}
+
+		// warm-up iterations are run again when resuming
+		final String modelHash = journal != null && modelDigest != null && trial >= 0 ? ResultCache.toHex(modelDigest) : null;
+		if (modelHash != null && journal.isCompleted(modelHash, solver, trial)) {
+			skippedEvaluations.increment();
+			logger.debug("Already completed: "+lqnModelPath+" "+solver+" trial "+trial);
+			return CompletableFuture.completedFuture(
+					new EvaluationResult(lqnModelPath.getFileName(), solver, 0, EvaluationStatus.SKIPPED));
 		}
+
+		CompletableFuture<EvaluationResult> result = submit(lqnModelPath, solver, modelDigest);
+		if (sink != null)
+			result.thenAccept(r -> sink.write(r, lqnModelPath, trial, submitted, System.currentTimeMillis()));
+		if (modelHash != null)
+			result.thenAccept(r -> {
+				// evaluations that could not reach the solver are run again
+				if (r.getStatus() != EvaluationStatus.ERROR)
+					journal.record(modelHash, solver, trial);
+			});
+		return result;
 	}
 
-	public void evaluateModel(Path lqnModelPath, String solver) {
+	private CompletableFuture<EvaluationResult> submit(final Path lqnModelPath, String solverName, byte[] modelDigest) {
+		final Solver solver = solvers.get(solverName);
+		if (solver == null)
+			throw new RejectedExecutionException("Solver not available: "+solverName);
 
-		// build the evaluation object
-		SolutionEvaluator eval = new SolutionEvaluator(lqnModelPath, solver);
-		eval.addListener(this);
+		// look for the result of an identical evaluation
+		String cacheKey = null;
+		EvaluationResult hit = null;
+		if (cache != null && modelDigest != null && solver.getCapabilities().contains(Solver.Capability.RESULT_FILE)) {
+			cacheKey = ResultCache.key(modelDigest, solver.getName(),
+					solver.getVersion(), solver.getOptions());
+			hit = cache.lookup(cacheKey, lqnModelPath, solver.resultFilePath(lqnModelPath));
+			if (hit != null) {
+				cacheHits.get(solverName).increment();
+				logger.debug("Cache hit: "+hit);
+			}
+		}
+		final EvaluationResult cached = hit;
 
-		if (solver.equals(Main.LINE_SOLVER)) {
-			eval.setLineServerHandler(handler);
-			incrementPendingLineEvaluations();
-		} else
-			incrementPendingLqnsEvaluations();
+		// launch the evaluation, on the calling thread when not parallel; cache hits
+		// are parsed and tracked like evaluations, so awaitAll waits for them too
+		final LongAdder pending = pendingEvaluations.get(solverName);
+		pending.increment();
+		final CompletableFuture<EvaluationResult> result;
+		try {
+			if (cached != null)
+				result = CompletableFuture.supplyAsync(() -> {
+					try {
+						return cached.withSolutionResult(solver.parseResults(lqnModelPath));
+					} catch (IOException | RuntimeException e) {
+						logger.error("Error in parsing the cached results of model "+lqnModelPath.getFileName(), e);
+						return cached;
+					}
+				}, parserExecutor);
+			else
+				result = solver.submit(lqnModelPath, parallel ? executors.get(solverName) : Runnable::run, parserExecutor);
+		} catch (RejectedExecutionException e) {
+			pending.decrement();
+			throw e;
+		}
+		inFlight.add(result);
+		result.whenComplete((r, t) -> {
+			pending.decrement();
+			completedEvaluations.increment();
+			inFlight.remove(result);
+		});
+		if (cacheKey != null && cached == null) {
+			final String key = cacheKey;
+			result.thenAccept(r -> {
+				if (r.getStatus() == EvaluationStatus.SUCCESS || r.getStatus() == EvaluationStatus.NOT_CONVERGED)
+					cache.store(key, r, solver.resultFilePath(lqnModelPath));
+			});
+		}
+		return result;
+	}
 
-		// launch the evaluation
-		if(parallel)
-			executor.execute(eval);
-		else 
-			eval.run();
+	/**
+	 * Number of evaluations of the solver served from the cache
+	 */
+	public int getCacheHits(String solver) {
+		return cacheHits.get(solver).intValue();
 	}
 
-	public int getTotalNumberOfEvaluations() {
-		return totalNumberOfEvaluations;
+	/**
+	 * Returns a future completed when all the evaluations submitted so far
+	 * have completed.
+	 */
+	public CompletableFuture<Void> allOf() {
+		return CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]));
 	}
 
-	private synchronized void incrementPendingLineEvaluations() {
-		pendingLineEvaluations++;
+	/**
+	 * Blocks until there are no more evaluations in flight, including the
+	 * ones submitted while waiting.
+	 */
+	public void awaitAll() {
+		while (!inFlight.isEmpty())
+			try {
+				allOf().join();
+			} catch (RuntimeException e) {
+				logger.error("Evaluation completed with error", e);
+			}
 	}
 
-	private synchronized void decrementPendingLineEvaluations() {
-		pendingLineEvaluations--;
+	/**
+	 * Number of evaluations the solver carries out at once
+	 */
+	public int getConcurrency(String solver) {
+		return executors.get(solver).getMaximumPoolSize();
 	}
 
-	private synchronized void incrementPendingLqnsEvaluations() {
-		pendingLqnsEvaluations++;
+	/**
+	 * Changes the number of evaluations the solver carries out at once, the
+	 * evaluations already running are not affected
+	 */
+	public void setConcurrency(String solver, int concurrency) {
+		ThreadPoolExecutor executor = executors.get(solver);
+		// the core size can never exceed the maximum one
+		if (concurrency > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(concurrency);
+			executor.setCorePoolSize(concurrency);
+		} else {
+			executor.setCorePoolSize(concurrency);
+			executor.setMaximumPoolSize(concurrency);
+		}
 	}
 
-	private synchronized void decrementPendingLqnsEvaluations() {
-		pendingLqnsEvaluations--;
+	/**
+	 * Number of evaluations waiting in the submission queue of the solver
+	 */
+	public int getQueueDepth(String solver) {
+		return executors.get(solver).getQueue().size();
 	}
-	
-	public synchronized boolean lineEvaluationsFinished(){		
-		return pendingLineEvaluations == 0;
+
+	/**
+	 * Number of evaluations currently being solved by the solver
+	 */
+	public int getActiveCount(String solver) {
+		return executors.get(solver).getActiveCount();
 	}
-	
-	public synchronized boolean lqnsEvaluationsFinished(){
-		return pendingLqnsEvaluations == 0;
+
+	public void logSchedulerStats() {
+		for (Map.Entry<String, ThreadPoolExecutor> e : executors.entrySet())
+			logger.info(e.getKey()+" queued: "+e.getValue().getQueue().size()
+					+" active: "+e.getValue().getActiveCount()
+					+" completed: "+e.getValue().getCompletedTaskCount());
+		for (Solver solver : solvers.values())
+			solver.logStatistics();
+		if (cache != null)
+			for (String solver : solvers.keySet())
+				logger.info("Cache hits "+solver+": "+getCacheHits(solver));
+		if (journal != null)
+			logger.info("Evaluations skipped as already completed: "+skippedEvaluations.sum());
 	}
 
-	public synchronized int getPendingLineEvaluations() {
-		return pendingLineEvaluations;
+	/**
+	 * Number of evaluations completed by the solvers or served from the
+	 * cache, skipped ones excluded
+	 */
+	public int getTotalNumberOfEvaluations() {
+		return completedEvaluations.intValue();
 	}
 
-	public synchronized int getPendingLqnsEvaluations() {
-		return pendingLqnsEvaluations;
+	/**
+	 * Number of evaluations submitted to the solver and not yet completed
+	 */
+	public int getPendingEvaluations(String solver) {
+		return pendingEvaluations.get(solver).intValue();
 	}
 
 	public void exit() {
-		handler.terminateLine();
-		executor.shutdown();
+		for (Solver solver : solvers.values())
+			solver.close();
+		for (ThreadPoolExecutor executor : executors.values())
+			executor.shutdown();
+		parserExecutor.shutdown();
+		try {
+			parserExecutor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (sink != null)
+			sink.close();
+		if (journal != null)
+			journal.close();
 	}
 	
-	public void logResults(){
-		logger.info(",Model Name, LQNS solution Time, LINE solution Time");
-		for(Path p:lineEvaluationTimes.keySet()){
-			logger.info(","+p.getFileName()+","+lqnsEvaluationTimes.get(p.getFileName())+","+lineEvaluationTimes.get(p.getFileName()));
+	/**
+	 * Applies backpressure to the submitter: when the queue of a solver is
+	 * full the caller waits for a free slot instead of spawning more work.
+	 */
+	private static class BlockWhenFullPolicy implements RejectedExecutionHandler {
+
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (executor.isShutdown())
+				throw new RejectedExecutionException("Executor has been shut down");
+			try {
+				executor.getQueue().put(r);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for a free slot", e);
+			}
 		}
 	}
 
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+/**
+ * Outcome of a single evaluation as reported by the solver.
+ */
+public enum EvaluationStatus {
+	/** the solver produced a result */
+	SUCCESS,
+	/** the solver produced a result but the model failed to converge */
+	NOT_CONVERGED,
+	/** the solver refused the model */
+	INVALID_INPUT,
+	/** the solver crashed or could not be reached */
+	ERROR,
+	/** the solver did not complete the evaluation within the timeout */
+	TIMEOUT,
+	/** the evaluation was completed in a previous run and has not been repeated */
+	SKIPPED;
+
+	/**
+	 * Maps a LINE status token (e.g. SOLVED) to an evaluation status
+	 */
+	public static EvaluationStatus fromLineStatus(String status) {
+		if (status.equals("SOLVED"))
+			return SUCCESS;
+		return ERROR;
+	}
+}
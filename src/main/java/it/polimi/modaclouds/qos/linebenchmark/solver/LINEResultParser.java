@@ -0,0 +1,47 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parser of the _res.xml files written by LINE. The metrics are attributes
+ * of the processor, task and entry elements themselves.
+ */
+public class LINEResultParser extends ResultParser {
+
+	@Override
+	protected void startElement(XMLStreamReader reader, SolutionResult.Builder builder) {
+		String element = reader.getLocalName();
+		Level level;
+		if (element.equals("processor"))
+			level = Level.PROCESSOR;
+		else if (element.equals("task"))
+			level = Level.TASK;
+		else if (element.equals("entry"))
+			level = Level.ENTRY;
+		else
+			return;
+		builder.add(level, reader.getAttributeValue(null, "name"),
+				attribute(reader, "util", "utilization"),
+				attribute(reader, "tput", "throughput"),
+				attribute(reader, "respT", "responseTime", "service-time"));
+	}
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parser of the .lqxo files written by LQNS. The metrics are in the
+ * result-processor, result-task and result-entry elements nested in the
+ * element they refer to.
+ */
+public class LQNSResultParser extends ResultParser {
+
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	static {
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private String processor;
+	private String task;
+	private String entry;
+
+	@Override
+	protected void startElement(XMLStreamReader reader, SolutionResult.Builder builder) {
+		String element = reader.getLocalName();
+		if (element.equals("processor"))
+			processor = reader.getAttributeValue(null, "name");
+		else if (element.equals("task"))
+			task = reader.getAttributeValue(null, "name");
+		else if (element.equals("entry"))
+			entry = reader.getAttributeValue(null, "name");
+		else if (element.equals("result-processor"))
+			builder.add(Level.PROCESSOR, processor, attribute(reader, "utilization"), Double.NaN, Double.NaN);
+		else if (element.equals("result-task"))
+			builder.add(Level.TASK, task, attribute(reader, "utilization"), attribute(reader, "throughput"),
+					serviceTime(reader));
+		else if (element.equals("result-entry"))
+			builder.add(Level.ENTRY, entry, attribute(reader, "utilization"), attribute(reader, "throughput"),
+					serviceTime(reader));
+	}
+
+	/**
+	 * LQNS reports either the total service time or the time of each phase
+	 */
+	private static double serviceTime(XMLStreamReader reader) {
+		double serviceTime = attribute(reader, "service-time");
+		if (!Double.isNaN(serviceTime))
+			return serviceTime;
+		double total = Double.NaN;
+		for (String phase : new String[] { "phase1-service-time", "phase2-service-time", "phase3-service-time" }) {
+			double phaseTime = attribute(reader, phase);
+			if (!Double.isNaN(phaseTime))
+				total = Double.isNaN(total) ? phaseTime : total + phaseTime;
+		}
+		return total;
+	}
+
+	/**
+	 * Reads the result-general element of a result file, the rest of the
+	 * file is not parsed
+	 * 
+	 * @return null if the file has no result-general element
+	 */
+	public static GeneralResult parseGeneral(Path resultFile) throws IOException {
+		try (InputStream in = Files.newInputStream(resultFile)) {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				while (reader.hasNext())
+					if (reader.next() == XMLStreamConstants.START_ELEMENT
+							&& reader.getLocalName().equals("result-general"))
+						return new GeneralResult(!"NO".equalsIgnoreCase(reader.getAttributeValue(null, "valid")),
+								time(reader.getAttributeValue(null, "elapsed-time")),
+								time(reader.getAttributeValue(null, "user-cpu-time")),
+								time(reader.getAttributeValue(null, "system-cpu-time")));
+				return null;
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Error in parsing the result file " + resultFile, e);
+		}
+	}
+
+	/**
+	 * @return the nanoseconds of a time formatted as h:mm:ss.ss, -1 if
+	 *         missing or not readable
+	 */
+	private static long time(String value) {
+		if (value == null)
+			return -1;
+		String[] fields = value.trim().split(":");
+		try {
+			double seconds = 0;
+			for (String field : fields)
+				seconds = seconds * 60 + Double.parseDouble(field);
+			return (long) (seconds * 1e9);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Convergence and times reported by LQNS for a model, times are -1 when
+	 * not reported
+	 */
+	public static class GeneralResult {
+
+		private final boolean valid;
+		private final long elapsedNanos;
+		private final long userCpuNanos;
+		private final long systemCpuNanos;
+
+		public GeneralResult(boolean valid, long elapsedNanos, long userCpuNanos, long systemCpuNanos) {
+			this.valid = valid;
+			this.elapsedNanos = elapsedNanos;
+			this.userCpuNanos = userCpuNanos;
+			this.systemCpuNanos = systemCpuNanos;
+		}
+
+		/**
+		 * Whether the model met the convergence criteria
+		 */
+		public boolean isValid() {
+			return valid;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public long getUserCpuNanos() {
+			return userCpuNanos;
+		}
+
+		public long getSystemCpuNanos() {
+			return systemCpuNanos;
+		}
+	}
+
+}
@@ -16,38 +16,40 @@
  */
 package it.polimi.modaclouds.qos.linebenchmark.solver;
 
-import it.polimi.modaclouds.qos.linebenchmark.main.Main;
-
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class LineConnectionHandler implements Runnable {
 	private BufferedReader in;
-	private boolean read = true;
-	private boolean running = false;
-	private boolean connected = false;
-	private Map<Path,String> evaluations = new HashMap<Path, String>();
-	private Map<Path,StopWatch> timers= new HashMap<Path, StopWatch>();
-	private ArrayList<ActionListener> listeners = new ArrayList<ActionListener>();
+	private volatile boolean read = true;
+	private volatile boolean running = false;
+	private volatile boolean connected = false;
+	/** requests the notifications are matched to, null to ignore them **/
+	private RequestTable requests;
+	/** registered from any thread, notified by the reader thread **/
+	private List<ActionListener> listeners = new CopyOnWriteArrayList<ActionListener>();
 	private static final Logger logger = LoggerFactory.getLogger(LineConnectionHandler.class);
 	String prefix="";
 
 	public LineConnectionHandler(BufferedReader in, String prefix) {
+		this(in, prefix, null);
+	}
+
+	LineConnectionHandler(BufferedReader in, String prefix, RequestTable requests) {
 		this.in = in;
 		if(prefix != null)
 			this.prefix = prefix; 
+		this.requests = requests;
 	}
-	public synchronized void close(){
+	public void close(){
 		read = false;
 	}
 
@@ -55,91 +57,115 @@ public class LineConnectionHandler implements Runnable {
 		listeners.add(listener);
 	}
 
-	private synchronized boolean isRead() {
+	private boolean isRead() {
 		return read;
 	}
 
-	public synchronized boolean isRunning() {
+	public boolean isRunning() {
 		return running;
 	}
 
-	public synchronized boolean isConnected(){
+	public boolean isConnected(){
 		return connected;
 	}
 
+	/**
+	 * Blocks on the stream and handles each line as soon as it arrives.
+	 * The loop ends when the stream is closed or reaches its end.
+	 */
 	public void run() {
-		while(isRead())
-			try {
-				Thread.sleep(10);
-				if(in.ready()){
-					String line = in.readLine();				
-
-					//set the starting
-					if(line.contains("MODEL"))
-						updateModelEvaluation(line);
-					if(line.contains("Listening on port"))
-						setRunning(true);
-					if(line.contains("LINE READY"))
-						setConnected(true);
-					if(line.contains("LINE STOP"))
-						setRunning(false);
-
-				}
-
-			} catch (IOException e) {
-				if(e.getMessage().equals("Stream closed"))
-					logger.info("LINE "+prefix+": "+e.getMessage());
-				else 
-					logger.error("Error in LINE communication",e);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				logger.error("Error in LINE communication",e);
+		try {
+			String line;
+			while(isRead() && (line = in.readLine()) != null){
+				//timestamp the message before any processing
+				long arrivalTime = System.nanoTime();
+
+				//set the starting
+				if(line.contains("MODEL"))
+					updateModelEvaluation(line, arrivalTime);
+				if(line.contains("Listening on port"))
+					setRunning(true);
+				if(line.contains("LINE READY"))
+					setConnected(true);
+				if(line.contains("LINE STOP"))
+					setRunning(false);
 			}
+		} catch (IOException e) {
+			if(!isRead() || e.getMessage().equals("Stream closed") || e.getMessage().equals("Socket closed"))
+				logger.info("LINE "+prefix+": "+e.getMessage());
+			else 
+				logger.error("Error in LINE communication",e);
+		}
+		logger.debug("LINE "+prefix+": reader terminated");
 	}
 
-	private synchronized void setRunning(boolean running){
+	private void setRunning(boolean running){
 		this.running = running;
 	}
 
-	private synchronized void setConnected(boolean connected){
+	private void setConnected(boolean connected){
 		this.connected = connected;
 	}
 
 
-	private synchronized void updateModelEvaluation(String message){
+	/**
+	 * Handles a MODEL notification, called by the reader thread only. The
+	 * notification is matched to its request by the id LINE appends
+	 * ("MODEL model status ID id"), or to the oldest request of the model
+	 * when there is no id.
+	 */
+	void updateModelEvaluation(String message, long arrivalTime){
 		message = message.trim().replaceAll(" +", " ");		
 		String[] tokens = message.split(" ");
+		int length = tokens.length;
+		long id = RequestTable.NO_REQUEST;
+		if(length > 4 && tokens[length-2].equals("ID")){
+			try {
+				id = Long.parseLong(tokens[length-1]);
+			} catch (NumberFormatException e) {
+				//matched as a notification without id, the reader must survive a malformed line
+				logger.warn("Malformed request id in LINE notification: "+message);
+			}
+			length -= 2;
+		}
+		if(length < 3){
+			logger.warn("Malformed LINE notification: "+message);
+			return;
+		}
 		String modelName = tokens[1];		
 		modelName = modelName.replace("_res.xml", ".xml");
 		modelName = Paths.get(modelName).toString();
 		String status = null;		
-		if(tokens.length == 4)
+		if(length == 4)
 			status = tokens[3];
 		else
 			status = tokens[2];		
 		Path modelPath = Paths.get(modelName);
-		evaluations.put(modelPath,status);
+		if(requests == null){
+			logger.debug("Model: "+modelName+" "+status);
+			return;
+		}
 
-		StopWatch timer; 
 		if(status.equals("SUBMITTED")){
-			timer = new StopWatch();		
-			timers.put(modelPath, timer);
-			timer.start();
+			long request = requests.find(id, modelPath, true);
+			if(request != RequestTable.NO_REQUEST)
+				requests.acknowledge(request, arrivalTime);
 			logger.debug("Model: "+modelName+" SUBMITTED");
 		}else{
-			timer = timers.get(modelPath);
-			timer.stop();
+			long request = requests.find(id, modelPath, false);
+			long evaluationTime = request == RequestTable.NO_REQUEST ? 0
+					: arrivalTime - requests.getAcknowledgedAt(request, arrivalTime);
 
 			EvaluationCompletedEvent evaluationCompleted= new EvaluationCompletedEvent(this,  0,  null);
-			evaluationCompleted.setEvaluationTime(timer.getTime());
-			evaluationCompleted.setSolverName(Main.LINE_SOLVER);
+			evaluationCompleted.setEvaluationTimeNanos(evaluationTime);
+			evaluationCompleted.setSolverName(LineSolver.NAME);
 			evaluationCompleted.setModelPath(modelPath.getFileName());
+			evaluationCompleted.setRequestId(request);
+			evaluationCompleted.setStatus(EvaluationStatus.fromLineStatus(status));
 			logger.debug("Model: "+modelName+" "+status);
 			for(ActionListener l:listeners)
 				l.actionPerformed(evaluationCompleted);
 		}
 	}
 
-
-
 }
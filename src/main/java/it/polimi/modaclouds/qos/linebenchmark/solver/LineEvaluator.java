@@ -0,0 +1,97 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates a model by sending it to one of the LINE instances of the pool,
+ * the worker slot is kept busy until LINE has answered
+ */
+public class LineEvaluator extends SolutionEvaluator implements ActionListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(LineEvaluator.class);
+
+	private LineServerPool linePool;
+	/** released when LINE notifies the end of the evaluation **/
+	private final CountDownLatch lineCompletion = new CountDownLatch(1);
+
+	public LineEvaluator(Path instance, Solver solver) {
+		super(instance, solver);
+	}
+
+	public void setLineServerPool(LineServerPool linePool){
+		this.linePool=linePool;
+	}
+
+	@Override
+	protected void evaluate() {
+		if(linePool==null){
+			System.err.println("LINE server pool not initialized");
+			evaluationCompleted(completionEvent(EvaluationStatus.ERROR, 0));
+			return;
+		}
+		long sent = System.nanoTime();
+		boolean submitted = false;
+		try {
+			linePool.solve(filePath, this);
+			submitted = true;
+
+			//keep the worker slot busy until LINE has solved the model
+			if (timeout > 0 && !lineCompletion.await(timeout, TimeUnit.MILLISECONDS)) {
+				if (linePool.cancel(filePath, this)) {
+					logger.warn("LINE did not solve model "+filePath.getFileName()+" within "+timeout+" ms");
+					evaluationCompleted(completionEvent(EvaluationStatus.TIMEOUT, System.nanoTime() - sent));
+					return;
+				}
+				//the completion arrived while cancelling, it is on its way
+				lineCompletion.await();
+			} else if (timeout <= 0)
+				lineCompletion.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while waiting for LINE on model "+filePath.getFileName(),e);
+			//forget the request, unless its completion is already on its way
+			if (!submitted || linePool.cancel(filePath, this))
+				evaluationCompleted(completionEvent(EvaluationStatus.ERROR, System.nanoTime() - sent));
+		} catch (RuntimeException e) {
+			//e.g. the instance went away, the result must complete all the same
+			logger.error("Error sending model "+filePath.getFileName()+" to LINE",e);
+			//the request may be outstanding even if it could not be sent
+			if (linePool.cancel(filePath, this) || !submitted)
+				evaluationCompleted(completionEvent(EvaluationStatus.ERROR, System.nanoTime() - sent));
+		}
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if(e instanceof EvaluationCompletedEvent)
+			evaluationCompleted((EvaluationCompletedEvent) e);
+		else
+			for(ActionListener l:listeners)
+				l.actionPerformed(e);
+		lineCompletion.countDown();
+	}
+}
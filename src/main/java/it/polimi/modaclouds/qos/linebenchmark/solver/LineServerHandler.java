@@ -24,20 +24,37 @@ import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class LineServerHandler implements ActionListener {
+	/** samples the resources of the locally launched LINE instances **/
+	private static final ScheduledExecutorService resourceSampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "line-resource-sampler");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
 	/** LINE connection handlers **/
 	private Socket lineSocket = null;
 	private boolean localInstance = false;
@@ -47,29 +64,58 @@ public class LineServerHandler implements ActionListener {
 	private LineConnectionHandler processLog;
 	private BufferedReader socketIn = null;
 	private LineConnectionHandler socketLog;	
-	private Map<Path,ActionListener> listeners = new HashMap<Path, ActionListener>();
+	/** added by the evaluator threads and answered through the connection thread **/
+	private RequestTable requests = new RequestTable(DEFAULT_MAX_OUTSTANDING);
+	/** whether the requests are sent with their id, which LINE echoes back **/
+	private boolean requestIds = false;
 	private static final Logger logger = LoggerFactory.getLogger(LineServerHandler.class);
+	private static final int DEFAULT_MAX_OUTSTANDING = 1024;
+	/** address of the LINE instance, used to identify it in the pool **/
+	private String address = "";
+	/** utilization bookkeeping, updated by the evaluator threads and the connection thread **/
+	private final AtomicInteger outstandingRequests = new AtomicInteger();
+	private final LongAdder solvedRequests = new LongAdder();
+	private final LongAdder busyNanos = new LongAdder();
+	/** start of the current busy period, only set when no request is outstanding **/
+	private volatile long busySince = 0;
+	private final long createdAt = System.nanoTime();
+	/** cpus a locally launched LINE is pinned to, null to use all **/
+	private String cpuSet;
+	/** last sample of the LINE process tree, null when it is not sampled **/
+	private volatile ProcessResources lineSample;
+	private ScheduledFuture<?> sampling;
 	public void closeConnections() {
+		if (sampling != null)
+			sampling.cancel(false);
 		if (out != null)
 			out.close();
 
 		try {
+			// close the socket first, it unblocks the reader waiting on it
+			if (socketLog != null)
+				socketLog.close();
+			if (lineSocket != null)
+				lineSocket.close();
+			if (socketIn != null)
+				socketIn.close();
 			if (processLog != null && processIn != null) {
 				processLog.close();
 				processIn.close();
 			}
-			if (socketLog != null && socketIn != null) {
-				socketLog.close();
-				socketIn.close();
-			}
-			if (lineSocket != null)
-				lineSocket.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * True once a connection to the LINE instance is open, requests can only
+	 * be sent to connected instances
+	 */
+	public boolean isConnected() {
+		return lineSocket != null && lineSocket.isConnected() && !lineSocket.isClosed();
+	}
+
 	public void connectToLINEServer() {
 		connectToLINEServer(null, -1);
 	}
@@ -90,9 +136,17 @@ public class LineServerHandler implements ActionListener {
 			if (port == -1)
 				port = Integer.parseInt(lineProperties.getProperty("port",
 						"5463"));
-			directory = new File(lineProperties.getProperty("directory", null));
+			// the working directory of a locally launched LINE, optional
+			String lineDirectory = lineProperties.getProperty("directory");
+			if (lineDirectory != null)
+				directory = new File(lineDirectory);
+			requestIds = Boolean.valueOf(lineProperties.getProperty("requestIds", "false"));
+			int maxOutstanding = Integer.parseInt(lineProperties.getProperty("maxOutstanding", ""+DEFAULT_MAX_OUTSTANDING));
+			if (maxOutstanding != requests.getCapacity())
+				requests = new RequestTable(maxOutstanding);
 
 			// try to connect
+			address = host + ":" + port;
 			initLINEConnection(host, port);
 		} catch (UnknownHostException e) {
 			// fallback to local host and retry
@@ -112,8 +166,9 @@ public class LineServerHandler implements ActionListener {
 							+ " on port: "
 							+ port
 							+ "\ntrying to launch line locally and connect to localhost.");
-			launchLine(linePropFile, directory);
+			launchLine(propertiesForPort(linePropFile, lineProperties, port), directory);
 			host = "localhost";
+			address = host + ":" + port;
 			try {
 				initLINEConnection(host, port);
 			} catch (IOException e1) {
@@ -132,7 +187,7 @@ public class LineServerHandler implements ActionListener {
 			socketIn = new BufferedReader(new InputStreamReader(
 					lineSocket.getInputStream()));
 		if (socketLog == null) {
-			socketLog = new LineConnectionHandler(socketIn, "socket");
+			socketLog = new LineConnectionHandler(socketIn, "socket", requests);
 			socketLog.addListener(this);
 			(new Thread(socketLog)).start();
 		}
@@ -147,10 +202,36 @@ public class LineServerHandler implements ActionListener {
 	}
 	
 
+	/**
+	 * LINE reads the port to listen on from its property file, when an
+	 * instance has to be launched on a different port a copy of the file
+	 * with the port overridden is used.
+	 */
+	private File propertiesForPort(File linePropFile, Properties lineProperties, int port) {
+		if (lineProperties.getProperty("port", "5463").equals(""+port))
+			return linePropFile;
+		try {
+			File portPropFile = File.createTempFile("LINE_" + port + "_", ".properties");
+			portPropFile.deleteOnExit();
+			Properties portProperties = new Properties();
+			portProperties.putAll(lineProperties);
+			portProperties.setProperty("port", ""+port);
+			FileOutputStream propOutput = new FileOutputStream(portPropFile);
+			portProperties.store(propOutput, "LINE instance on port " + port);
+			propOutput.close();
+			return portPropFile;
+		} catch (IOException e) {
+			logger.error("Could not write the property file for port " + port, e);
+			return linePropFile;
+		}
+	}
+
 	private boolean launchLine(File linePropFile, File directory) {
 		try {
 			String lineInvocation = "LINE" + " " + "\""
 					+ linePropFile.getAbsolutePath().replace('\\', '/') + "\"";
+			if (cpuSet != null)
+				lineInvocation = "taskset -c " + cpuSet + " " + lineInvocation;
 			logger.info(lineInvocation);
 			ProcessBuilder pb = new ProcessBuilder(lineInvocation.split("\\s"));
 			pb.directory(directory);
@@ -178,12 +259,18 @@ public class LineServerHandler implements ActionListener {
 		}
 	}
 
-	public void solve(Path filePath, Path REfilePath) {
+	/**
+	 * Sends the model to LINE, the request has to be added with
+	 * {@link #addListener(Path, LineEvaluator)} first
+	 */
+	public void solve(Path filePath, Path REfilePath, long requestId) {
 		
 		// build the command
 		String command = "SOLVE " + filePath.toAbsolutePath();
 		if (REfilePath != null)
 			command += " " + REfilePath.toAbsolutePath();	
+		if (requestIds)
+			command += " ID " + requestId;
 		// send the command
 		out.println(command);
 		out.flush();
@@ -206,17 +293,143 @@ public class LineServerHandler implements ActionListener {
 
 	}
 
-	public void addListener(Path filePath, SolutionEvaluator solutionEvaluator) {
-		listeners.put(filePath.getFileName(), solutionEvaluator);
-		logger.info("added listener:"+filePath.getFileName());
+	/**
+	 * Adds a request for the model, waiting when maxOutstanding requests
+	 * are already outstanding on this instance
+	 * 
+	 * @return the id of the request
+	 */
+	public long addListener(Path filePath, LineEvaluator solutionEvaluator) throws InterruptedException {
+		long requestId = requests.add(filePath, solutionEvaluator, lineSample);
+		requestStarted();
+		logger.info("added listener:"+filePath.getFileName()+" request "+requestId+" on LINE "+address);
+		return requestId;
+	}
+
+	/**
+	 * Adds a request for the model if fewer than maxOutstanding requests
+	 * are outstanding on this instance, without waiting
+	 * 
+	 * @return the id of the request, {@link RequestTable#NO_REQUEST} if the
+	 *         instance is full
+	 */
+	long tryAddListener(Path filePath, LineEvaluator solutionEvaluator) {
+		long requestId = requests.tryAdd(filePath, solutionEvaluator, lineSample);
+		if (requestId == RequestTable.NO_REQUEST)
+			return requestId;
+		requestStarted();
+		logger.info("added listener:"+filePath.getFileName()+" request "+requestId+" on LINE "+address);
+		return requestId;
 	}
 
 	public void actionPerformed(ActionEvent e) {
 		if(e instanceof EvaluationCompletedEvent){
 			EvaluationCompletedEvent event = (EvaluationCompletedEvent) e;
-			logger.debug("Evaluation completed on model: "+event.getModelPath()+" solver: "+event.getSolverName());
-			listeners.get(event.getModelPath().getFileName()).actionPerformed(e);
+			logger.debug("Evaluation completed on model: "+event.getModelPath()+" solver: "+event.getSolverName()+" LINE: "+address);
+			//read before the slot of the request is freed
+			ProcessResources before = event.getRequestId() < 0 ? null : requests.getResources(event.getRequestId());
+			ActionListener listener = requests.remove(event.getRequestId());
+			if (listener == null) {
+				//the request has been cancelled after a timeout
+				logger.warn("Ignoring late completion of model "+event.getModelPath()+" on LINE "+address);
+				return;
+			}
+			requestCompleted(true);
+			ProcessResources after = lineSample;
+			if (before != null && after != null)
+				event.setResources(after.minus(before));
+			listener.actionPerformed(e);
 		}
 		
 	}
+
+	/**
+	 * Forgets a request that LINE has not answered yet, its completion will
+	 * be ignored. Returns false if the request is not outstanding anymore.
+	 */
+	public boolean cancel(Path filePath, ActionListener listener) {
+		if (requests.remove(listener) == null)
+			return false;
+		requestCompleted(false);
+		logger.info("cancelled request:"+filePath.getFileName()+" on LINE "+address);
+		return true;
+	}
+
+	/**
+	 * Samples the LINE process tree every interval milliseconds, only
+	 * possible when LINE has been launched by this handler. A request is
+	 * charged the difference between the last samples taken before it was
+	 * added and before it completed, so requests solved concurrently by the
+	 * same instance share the resources used in the meanwhile.
+	 */
+	public void startResourceSampling(long interval) {
+		if (!localInstance || proc == null || interval <= 0 || sampling != null)
+			return;
+		final long pid = ProcessResources.pidOf(proc);
+		if (pid < 0)
+			return;
+		lineSample = ProcessResources.sample(pid, true);
+		sampling = resourceSampler.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				ProcessResources sample = ProcessResources.sample(pid, true);
+				if (sample != null)
+					lineSample = sample;
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	private void requestStarted() {
+		if (outstandingRequests.getAndIncrement() == 0)
+			busySince = System.nanoTime();
+	}
+
+	private void requestCompleted(boolean solved) {
+		// read before the decrement, a new busy period can only start afterwards
+		long since = busySince;
+		if (solved)
+			solvedRequests.increment();
+		if (outstandingRequests.decrementAndGet() == 0)
+			busyNanos.add(System.nanoTime() - since);
+	}
+
+	public int getOutstandingRequests() {
+		return outstandingRequests.get();
+	}
+
+	public long getSolvedRequests() {
+		return solvedRequests.sum();
+	}
+
+	/**
+	 * Fraction of the lifetime of this handler in which at least one request
+	 * was being solved by its LINE instance
+	 */
+	public double getUtilization() {
+		long now = System.nanoTime();
+		long busy = busyNanos.sum();
+		if (outstandingRequests.get() > 0)
+			busy += now - busySince;
+		return (double) busy / (now - createdAt);
+	}
+
+	RequestTable getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Sends the id of each request to LINE, for the LINE versions echoing it
+	 */
+	public void setRequestIds(boolean requestIds) {
+		this.requestIds = requestIds;
+	}
+
+	public void setCpuSet(String cpuSet) {
+		this.cpuSet = cpuSet;
+	}
+
+	public String getAddress() {
+		return address;
+	}
 }
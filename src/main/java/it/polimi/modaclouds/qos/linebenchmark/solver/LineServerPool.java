@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import it.polimi.modaclouds.qos.linebenchmark.main.Main;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of LINE instances. Each instance is managed by its own
+ * {@link LineServerHandler}, requests are dispatched to the instance with
+ * the least outstanding requests and completions are routed back by the
+ * handler that sent them.
+ * 
+ * The instances are listed in the LINE property file with the ports
+ * property (e.g. ports=5463,5464), when it is missing a single instance on
+ * port is used.
+ */
+public class LineServerPool {
+
+	private List<LineServerHandler> handlers = new ArrayList<LineServerHandler>();
+	private static final Logger logger = LoggerFactory.getLogger(LineServerPool.class);
+	/** cpus locally launched instances are pinned to, null to use all **/
+	private String cpuSet;
+	/** interval between samples of locally launched instances in milliseconds, 0 to disable **/
+	private long resourceSamplingInterval;
+
+	public LineServerPool() {
+		this(null);
+	}
+
+	public LineServerPool(String cpuSet) {
+		this(cpuSet, 0);
+	}
+
+	public LineServerPool(String cpuSet, long resourceSamplingInterval) {
+		this.cpuSet = cpuSet;
+		this.resourceSamplingInterval = resourceSamplingInterval;
+	}
+
+	/**
+	 * Connects to (or launches) every instance listed in the LINE property
+	 * file, the ones that cannot be reached are left out of the pool. Fails
+	 * when none can.
+	 */
+	public void connectToLINEServers() throws IOException {
+		Properties lineProperties = new Properties();
+		try {
+			FileInputStream propInput = new FileInputStream(Main.LINE_PROP_FILE.toFile());
+			lineProperties.load(propInput);
+			propInput.close();
+		} catch (IOException e) {
+			logger.error("Error in reading the LINE property file", e);
+		}
+		String ports = lineProperties.getProperty("ports", lineProperties.getProperty("port", "5463"));
+		for (String port : ports.split(",")) {
+			LineServerHandler handler = new LineServerHandler();
+			handler.setCpuSet(cpuSet);
+			handler.connectToLINEServer(null, Integer.parseInt(port.trim()));
+			if (handler.isConnected()) {
+				handler.startResourceSampling(resourceSamplingInterval);
+				handlers.add(handler);
+			} else
+				logger.error("Could not connect to LINE on port " + port.trim() + ", leaving it out of the pool");
+		}
+		if (handlers.isEmpty())
+			throw new IOException("Could not connect to any LINE instance on ports " + ports);
+		logger.info("Connected to " + handlers.size() + " LINE instances");
+	}
+
+	/**
+	 * Sends the model to the least loaded instance, the listener is notified
+	 * when that instance has solved the model. A full instance is skipped
+	 * for the next least loaded one, when all of them are full the request
+	 * waits for a slot of the least loaded one, without holding up the
+	 * requests sent to the others.
+	 */
+	public void solve(Path filePath, LineEvaluator listener) throws InterruptedException {
+		LineServerHandler handler = null;
+		long requestId = RequestTable.NO_REQUEST;
+		synchronized (this) {
+			boolean[] tried = new boolean[handlers.size()];
+			for (int i = 0; i < handlers.size() && requestId == RequestTable.NO_REQUEST; i++) {
+				int selected = leastLoaded(tried);
+				tried[selected] = true;
+				if (handler == null)
+					handler = handlers.get(selected);
+				// adding the request counts it as outstanding
+				requestId = handlers.get(selected).tryAddListener(filePath, listener);
+				if (requestId != RequestTable.NO_REQUEST)
+					handler = handlers.get(selected);
+			}
+		}
+		if (requestId == RequestTable.NO_REQUEST)
+			requestId = handler.addListener(filePath, listener);
+		handler.solve(filePath, null, requestId);
+	}
+
+	/**
+	 * Index of the instance with the least outstanding requests among the
+	 * ones not tried yet
+	 */
+	private int leastLoaded(boolean[] tried) {
+		int selected = -1;
+		for (int i = 0; i < handlers.size(); i++)
+			if (!tried[i] && (selected < 0
+					|| handlers.get(i).getOutstandingRequests() < handlers.get(selected).getOutstandingRequests()))
+				selected = i;
+		return selected;
+	}
+
+	/**
+	 * Forgets the request of the listener on the instance it was sent to.
+	 * Returns false if the instance has already answered it.
+	 */
+	public boolean cancel(Path filePath, LineEvaluator listener) {
+		for (LineServerHandler handler : handlers)
+			if (handler.cancel(filePath, listener))
+				return true;
+		return false;
+	}
+
+	public int size() {
+		return handlers.size();
+	}
+
+	public void logUtilization() {
+		for (LineServerHandler handler : handlers)
+			logger.info("LINE " + handler.getAddress() + " solved: " + handler.getSolvedRequests()
+					+ " outstanding: " + handler.getOutstandingRequests()
+					+ " utilization: " + Main.round(handler.getUtilization() * 100, 2) + "%");
+	}
+
+	public void terminateLine() {
+		for (LineServerHandler handler : handlers)
+			handler.terminateLine();
+	}
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * LINE, reached through the pool of instances listed in the LINE property
+ * file. Configured by lineVersion, lineTimeout, lineCpuSet and
+ * resourceSamplingInterval, which samples the instances launched locally.
+ */
+public class LineSolver extends AbstractSolver {
+
+	public static final String NAME = "LINE";
+
+	private LineServerPool linePool;
+
+	public LineSolver() {
+		super(NAME, "0.5e");
+	}
+
+	@Override
+	public void init(Properties properties) throws IOException {
+		super.init(properties);
+		linePool = new LineServerPool(cpuSet, Long.parseLong(properties.getProperty("resourceSamplingInterval", "0")));
+		linePool.connectToLINEServers();
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.RESULT_FILE, Capability.RESOURCE_ACCOUNTING, Capability.TIMEOUT);
+	}
+
+	/**
+	 * One request outstanding on each instance
+	 */
+	@Override
+	public int getConcurrencyLimit() {
+		return linePool.size();
+	}
+
+	@Override
+	public CompletableFuture<EvaluationResult> submit(Path model, Executor executor, Executor parserExecutor) {
+		LineEvaluator eval = new LineEvaluator(model, this);
+		eval.setParserExecutor(parserExecutor);
+		eval.setTimeout(timeout);
+		eval.setLineServerPool(linePool);
+		executor.execute(eval);
+		return eval.getResult();
+	}
+
+	@Override
+	public Path resultFilePath(Path model) {
+		return replaceExtension(model, "_res.xml");
+	}
+
+	@Override
+	public SolutionResult parseResults(Path model) throws IOException {
+		return new LINEResultParser().parse(resultFilePath(model));
+	}
+
+	@Override
+	public void logStatistics() {
+		linePool.logUtilization();
+	}
+
+	@Override
+	public void close() {
+		linePool.terminateLine();
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.LQNSResultParser.GeneralResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Solves several models with a single lqns process, so that the start-up
+ * of the process is paid once for the batch. The evaluation of each model
+ * is reported to its own {@link LqnsEvaluator}.
+ * 
+ * The exit value of lqns is the bit-wise OR of the outcome of each model,
+ * so the status of a model is taken from its result file: a model with a
+ * result file succeeded or did not converge (valid attribute of
+ * result-general), a model without one is INVALID_INPUT when the exit value
+ * reports an invalid input, TIMEOUT when the process was killed, ERROR
+ * otherwise. Stale result files are deleted before launching lqns.
+ * 
+ * The time of a model is the elapsed-time reported in its result file or,
+ * when missing, the time since the result file of the previous model was
+ * written; the rest of the time of the process is its start-up overhead.
+ */
+class LqnsBatch implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(LqnsBatch.class);
+
+	private final List<LqnsEvaluator> evaluations;
+	private final LqnsSolver solver;
+	private final String cpuSet;
+	private final long timeout;
+	private final long resourceSamplingInterval;
+
+	/**
+	 * @param timeout
+	 *            milliseconds allowed to each model, the process is killed
+	 *            after the total of the batch
+	 */
+	LqnsBatch(List<LqnsEvaluator> evaluations, LqnsSolver solver, String cpuSet, long timeout,
+			long resourceSamplingInterval) {
+		this.evaluations = new ArrayList<>(evaluations);
+		this.solver = solver;
+		this.cpuSet = cpuSet;
+		this.timeout = timeout;
+		this.resourceSamplingInterval = resourceSamplingInterval;
+	}
+
+	/**
+	 * Reports all the evaluations of the batch as failed
+	 */
+	void fail() {
+		for (LqnsEvaluator evaluation : evaluations)
+			evaluation.fail(EvaluationStatus.ERROR);
+	}
+
+	@Override
+	public void run() {
+		try {
+			solve();
+		} catch (RuntimeException e) {
+			logger.error("Error in solving a batch of "+evaluations.size()+" models", e);
+			// the evaluations already reported are not notified again
+			fail();
+		}
+	}
+
+	private void solve() {
+		List<Path> models = new ArrayList<>();
+		for (LqnsEvaluator evaluation : evaluations) {
+			models.add(evaluation.filePath);
+			try {
+				Files.deleteIfExists(solver.resultFilePath(evaluation.filePath));
+			} catch (IOException e) {
+				logger.warn("Could not delete the previous results of "+evaluation.filePath.getFileName(), e);
+			}
+		}
+		LqnsProcess process = new LqnsProcess(solver.getOptions(), cpuSet, timeout * models.size(), resourceSamplingInterval);
+		try {
+			process.run(models);
+		} catch (IOException | InterruptedException e) {
+			logger.error("Error in running lqns on a batch of "+models.size()+" models", e);
+			fail();
+			return;
+		}
+
+		int exitValue = process.getExitValue();
+		// a fatal error (-1) sets all the bits
+		boolean fatal = exitValue == LqnsEvaluator.LQNS_RETURN_FATAL_ERROR || exitValue == (LqnsEvaluator.LQNS_RETURN_FATAL_ERROR & 0xFF);
+		boolean invalidInput = process.hasExited() && !fatal && (exitValue & LqnsEvaluator.LQNS_RETURN_INVALID_INPUT) != 0;
+		if (!process.hasExited())
+			logger.warn("lqns did not solve the batch of "+models.size()+" models within "+timeout*models.size()+" ms, killed");
+		else if (exitValue != LqnsEvaluator.LQNS_RETURN_SUCCESS)
+			logger.debug("lqns exited with "+exitValue+" on a batch of "+models.size()+" models");
+
+		// models are solved in the order of the command line
+		long previousWritten = process.getStartMillis();
+		long solveNanos = 0;
+		List<EvaluationCompletedEvent> events = new ArrayList<>();
+		for (LqnsEvaluator evaluation : evaluations) {
+			Path resultFile = solver.resultFilePath(evaluation.filePath);
+			EvaluationStatus status;
+			long nanos = 0;
+			GeneralResult general = null;
+			if (Files.exists(resultFile)) {
+				try {
+					general = LQNSResultParser.parseGeneral(resultFile);
+					long written = Files.getLastModifiedTime(resultFile).toMillis();
+					nanos = general != null && general.getElapsedNanos() > 0 ? general.getElapsedNanos()
+							: TimeUnit.MILLISECONDS.toNanos(Math.max(0, written - previousWritten));
+					previousWritten = Math.max(previousWritten, written);
+					status = general == null || general.isValid() ? EvaluationStatus.SUCCESS : EvaluationStatus.NOT_CONVERGED;
+				} catch (IOException e) {
+					logger.error("Error in reading the results of model "+evaluation.filePath.getFileName(), e);
+					status = EvaluationStatus.ERROR;
+				}
+			} else if (invalidInput)
+				status = EvaluationStatus.INVALID_INPUT;
+			else if (!process.hasExited())
+				status = EvaluationStatus.TIMEOUT;
+			else
+				status = EvaluationStatus.ERROR;
+			solveNanos += nanos;
+			EvaluationCompletedEvent event = evaluation.completionEvent(status, nanos);
+			if (general != null && general.getUserCpuNanos() >= 0 && general.getSystemCpuNanos() >= 0)
+				event.setResources(new ProcessResources(general.getUserCpuNanos(), general.getSystemCpuNanos(), 0, 0, 0));
+			events.add(event);
+		}
+		long overheadNanos = Math.max(0, process.getNanoTime() - solveNanos);
+		solver.batchCompleted(models.size(), process.getNanoTime(), overheadNanos);
+		logger.debug("Batch of "+models.size()+" models solved in "+TimeUnit.NANOSECONDS.toMillis(process.getNanoTime())
+				+" ms, start-up overhead "+TimeUnit.NANOSECONDS.toMillis(overheadNanos)+" ms");
+		for (int i = 0; i < evaluations.size(); i++)
+			evaluations.get(i).evaluationCompleted(events.get(i));
+	}
+
+}
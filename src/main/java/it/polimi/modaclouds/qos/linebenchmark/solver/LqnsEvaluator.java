@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates a model by launching an lqns process on it
+ */
+public class LqnsEvaluator extends SolutionEvaluator {
+
+	// Return values of lqns
+	/** The Constant LQNS_RETURN_SUCCESS. */
+	static final int LQNS_RETURN_SUCCESS = 0;
+	
+	/** The Constant LQNS_RETURN_MODEL_FAILED_TO_CONVERGE. */
+	static final int LQNS_RETURN_MODEL_FAILED_TO_CONVERGE = 1;
+
+	/** The Constant LQNS_RETURN_INVALID_INPUT. */
+	static final int LQNS_RETURN_INVALID_INPUT = 2;
+
+	/** The Constant LQNS_RETURN_FATAL_ERROR. */
+	static final int LQNS_RETURN_FATAL_ERROR = -1;
+
+	private static final Logger logger = LoggerFactory.getLogger(LqnsEvaluator.class);
+
+	/** cpus lqns is pinned to, null to use all **/
+	String cpuSet;
+	/** interval between samples of the lqns resources in milliseconds, 0 to disable **/
+	long resourceSamplingInterval = 0;
+
+	public LqnsEvaluator(Path instance, Solver solver) {
+		super(instance, solver);
+	}
+
+	public void setResourceSamplingInterval(long resourceSamplingInterval){
+		this.resourceSamplingInterval=resourceSamplingInterval;
+	}
+
+	public void setCpuSet(String cpuSet){
+		this.cpuSet=cpuSet;
+	}
+
+	@Override
+	protected void evaluate() {
+		String solverProgram = "lqns";
+		EvaluationStatus status = EvaluationStatus.SUCCESS;
+		LqnsProcess process = new LqnsProcess(solver.getOptions(), cpuSet, timeout, resourceSamplingInterval);
+		try {
+			process.run(Collections.singletonList(filePath));
+			boolean exited = process.hasExited();
+
+			//evaluation error messages
+			int exitVal = exited ? process.getExitValue() : LQNS_RETURN_SUCCESS;
+			if (!exited) {
+				status = EvaluationStatus.TIMEOUT;
+				logger.warn(solverProgram+" did not solve model "+filePath.getFileName()+" within "+timeout+" ms, killed");
+			}
+			else if(exitVal == LQNS_RETURN_SUCCESS);
+			else if (exitVal == LQNS_RETURN_MODEL_FAILED_TO_CONVERGE) {
+				status = EvaluationStatus.NOT_CONVERGED;
+				System.err.println(solver.getName()
+						+ " exited with "
+						+ exitVal
+						+ ": The model failed to converge. Results are most likely inaccurate. ");
+				System.err.println("Analysis Result has been written to: " + solver.resultFilePath(filePath));
+			} else {
+				String message = "";
+				status = EvaluationStatus.ERROR;
+				if (exitVal == LQNS_RETURN_INVALID_INPUT) {
+					status = EvaluationStatus.INVALID_INPUT;
+					message = solverProgram + " exited with " + exitVal
+							+ ": Invalid Input.";
+				} else if (exitVal == LQNS_RETURN_FATAL_ERROR) {
+					message = solverProgram + " exited with " + exitVal
+							+ ": Fatal error";
+				} else {
+					message = solverProgram
+							+ " returned an unrecognised exit value "
+							+ exitVal
+							+ ". Key: 0 on success, 1 if the model failed to meet the convergence criteria, 2 if the input was invalid, 4 if a command line argument was incorrect, 8 for file read/write problems and -1 for fatal errors. If multiple input files are being processed, the exit code is the bit-wise OR of the above conditions.";
+				}
+				System.err.println(message);
+			}					
+		} catch (IOException | InterruptedException e) {
+			status = EvaluationStatus.ERROR;
+			logger.error("Error in running "+solverProgram+" on "+filePath,e);
+		}
+		//tell listeners that the evaluation has been performed
+		EvaluationCompletedEvent evaluationCompleted = completionEvent(status, process.getNanoTime());
+		evaluationCompleted.setResources(process.getResources());
+		evaluationCompleted(evaluationCompleted);
+	}
+
+	/**
+	 * Reports the evaluation as failed without running it
+	 */
+	void fail(EvaluationStatus status) {
+		evaluationCompleted(completionEvent(status, 0));
+	}
+}
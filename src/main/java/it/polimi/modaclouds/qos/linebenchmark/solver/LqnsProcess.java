@@ -0,0 +1,305 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An lqns process solving one or more models. The process is timed,
+ * sampled for its resources, and killed with the processes it has spawned
+ * when it exceeds the timeout.
+ * <p>
+ * The JVM reaps a process as soon as it exits, so /proc can not be read
+ * after the end of a run and the samples miss its last interval, all of a
+ * run shorter than the interval. When sampling, lqns is therefore launched
+ * by a shell that reports with times the cpu time of lqns on exit, which
+ * replaces the sampled one. The shell is forked within the timed window,
+ * so sampling is off unless a resourceSamplingInterval is configured.
+ */
+class LqnsProcess {
+
+	/** samples the resources of the running lqns processes **/
+	private static final ScheduledExecutorService resourceSampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "resource-sampler");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** drains the output of the lqns processes so that their termination can be awaited with a timeout **/
+	private static final ExecutorService streamReader = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "lqns-output-reader");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** line of the shell before the output of times **/
+	private static final String TIMES_MARKER = "lqns-times:";
+	/** runs lqns with the arguments of the shell and reports its cpu time, keeping its exit value **/
+	private static final String ACCOUNTING_SCRIPT = "lqns \"$@\"; status=$?; echo " + TIMES_MARKER
+			+ " >&2; times >&2; exit $status";
+	/** user and system time of the children in the output of times, e.g. 0m0.120s 0m0.010s **/
+	private static final Pattern TIMES = Pattern.compile("(\\d+)m([\\d.]+)s\\s+(\\d+)m([\\d.]+)s");
+
+	/** milliseconds the output of an exited lqns process is waited for **/
+	private static final long STREAM_DRAIN_TIMEOUT = 1000;
+
+	private static final Logger logger = LoggerFactory.getLogger(LqnsProcess.class);
+
+	private final String options;
+	/** cpus lqns is pinned to, null to use all **/
+	private final String cpuSet;
+	/** milliseconds after which the process is killed, 0 for no limit **/
+	private final long timeout;
+	/** interval between samples of the lqns resources in milliseconds, 0 to disable the sampling and the shell **/
+	private final long resourceSamplingInterval;
+
+	private final StopWatch timer = new StopWatch();
+	private long startMillis;
+	private boolean exited;
+	private int exitValue;
+	private final AtomicReference<ProcessResources> resources = new AtomicReference<>();
+	/** output of times, written by the reader of the errors **/
+	private volatile String times;
+
+	LqnsProcess(String options, String cpuSet, long timeout, long resourceSamplingInterval) {
+		this.options = options;
+		this.cpuSet = cpuSet;
+		this.timeout = timeout;
+		this.resourceSamplingInterval = resourceSamplingInterval;
+	}
+
+	/**
+	 * Runs lqns on the models, returns once the process has exited or has
+	 * been killed
+	 */
+	void run(List<Path> models) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		if(cpuSet!=null) {
+			command.add("taskset");
+			command.add("-c");
+			command.add(cpuSet);
+		}
+		boolean accounting = resourceSamplingInterval > 0 && ProcessResources.isSupported();
+		if (accounting) {
+			command.add("sh");
+			command.add("-c");
+			command.add(ACCOUNTING_SCRIPT);
+		}
+		command.add("lqns");
+		for (String option : options.split("\\s"))
+			if (!option.isEmpty())
+				command.add(option);
+		for (Path model : models)
+			command.add(model.toString());
+		logger.info("Launch: "+String.join(" ", command));
+		try {
+			ProcessBuilder pb = new ProcessBuilder(command);
+
+			//start counting
+			startMillis = System.currentTimeMillis();
+			timer.start();
+			Process proc = pb.start();
+			//the process can not be read once it has exited, keep the last sample
+			ScheduledFuture<?> sampling = null;
+			final long pid = ProcessResources.pidOf(proc);
+			if(resourceSamplingInterval > 0 && pid > 0)
+				sampling = resourceSampler.scheduleAtFixedRate(new Runnable() {
+
+					/** lqns, found among the children of the shell once it has been forked **/
+					private long lqns = accounting ? -1 : pid;
+
+					@Override
+					public void run() {
+						if (lqns < 0) {
+							List<Long> children = ProcessResources.children(pid);
+							if (children.isEmpty())
+								return;
+							lqns = children.get(0);
+						}
+						ProcessResources sample = ProcessResources.sample(lqns, false);
+						if(sample != null)
+							resources.set(sample);
+					}
+				}, 0, resourceSamplingInterval, TimeUnit.MILLISECONDS);
+			Future<?> output = readStreamAsync(proc.getInputStream(),false);
+			Future<?> errors = readStreamAsync(proc.getErrorStream(),true);
+			exited = true;
+			if (timeout > 0)
+				exited = proc.waitFor(timeout, TimeUnit.MILLISECONDS);
+			else
+				proc.waitFor();
+			//stop counting
+			timer.stop();
+			if(sampling != null)
+				sampling.cancel(false);
+			if (!exited)
+				killTree(proc, pid);
+			//let the readers reach the end of the output before closing it
+			awaitQuietly(output);
+			awaitQuietly(errors);
+			proc.destroy();
+			if (exited)
+				exitValue = proc.exitValue();
+			if (accounting && times != null)
+				resources.set(withCpuTimes(resources.get(), times));
+		} finally {
+			if (timer.isStarted())
+				timer.stop();
+		}
+	}
+
+	/**
+	 * Whether the process exited within the timeout
+	 */
+	boolean hasExited() {
+		return exited;
+	}
+
+	int getExitValue() {
+		return exitValue;
+	}
+
+	/**
+	 * Wall clock time of the process
+	 */
+	long getNanoTime() {
+		return timer.getNanoTime();
+	}
+
+	/**
+	 * Epoch milliseconds at which the process was launched
+	 */
+	long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * Last sample of the resources of the process, null if not sampled
+	 */
+	ProcessResources getResources() {
+		return resources.get();
+	}
+
+	/**
+	 * The sample with the cpu times of the children reported by times,
+	 * unchanged if they can not be parsed
+	 */
+	private static ProcessResources withCpuTimes(ProcessResources sample, String times) {
+		Matcher matcher = TIMES.matcher(times);
+		if (!matcher.find())
+			return sample;
+		long user = nanos(matcher.group(1), matcher.group(2));
+		long system = nanos(matcher.group(3), matcher.group(4));
+		if (sample == null)
+			return new ProcessResources(user, system, 0, 0, 0);
+		return new ProcessResources(Math.max(user, sample.getUserCpuNanos()), Math.max(system, sample.getSystemCpuNanos()),
+				sample.getPeakRssBytes(), sample.getReadBytes(), sample.getWriteBytes());
+	}
+
+	private static long nanos(String minutes, String seconds) {
+		return TimeUnit.MINUTES.toNanos(Long.parseLong(minutes)) + (long) (Double.parseDouble(seconds) * 1e9);
+	}
+
+	/**
+	 * Kills a process that is still running together with the processes it
+	 * has spawned, descendants first so that they are not re-parented. The
+	 * output of the process stays readable when its pid is known.
+	 */
+	private static void killTree(Process proc, long pid) throws InterruptedException {
+		if (pid > 0) {
+			List<Long> tree = ProcessResources.tree(pid);
+			for (int i = tree.size() - 1; i >= 0; i--)
+				try {
+					new ProcessBuilder("kill", "-KILL", Long.toString(tree.get(i))).start().waitFor();
+				} catch (IOException e) {
+					logger.warn("Could not kill process "+tree.get(i), e);
+				}
+			if (proc.waitFor(STREAM_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS))
+				return;
+		}
+		proc.destroyForcibly();
+	}
+
+	private static void awaitQuietly(Future<?> reader) throws InterruptedException {
+		try {
+			reader.get(STREAM_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException | TimeoutException e) {
+			logger.debug("Output of lqns not fully read", e);
+		}
+	}
+
+	private Future<?> readStreamAsync(final InputStream is, final boolean show) {
+		return streamReader.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				readStream(is, show);
+			}
+		});
+	}
+
+	private void readStream(InputStream is,boolean show) {
+		try {
+			InputStreamReader isr = new InputStreamReader(is);
+			BufferedReader br = new BufferedReader(isr);
+			String line = null;
+			boolean accounting = false;
+			while ((line = br.readLine()) != null){
+				// the second line of times holds the children, i.e. lqns
+				if (accounting)
+					times = line;
+				else if (line.equals(TIMES_MARKER))
+					accounting = true;
+				else if(show)
+					logger.info("Pb: "+line);
+			}
+
+		} catch (IOException ioe) {
+			logger.warn("Could not read the output of lqns", ioe);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The analytic solver of the LQN toolkit, one lqns process is launched for
+ * each model. Configured by lqnsVersion, lqnsOptions (the command line
+ * flags, part of the cache key), lqnsTimeout, lqnsCpuSet and
+ * resourceSamplingInterval.
+ * 
+ * With lqnsBatchSize greater than 1 the models are grouped and each lqns
+ * process solves a batch of them (see {@link LqnsBatch}). A batch is
+ * launched once full or lqnsBatchLinger milliseconds after its first model
+ * was submitted; the timeout applies to each model of the batch.
+ */
+public class LqnsSolver extends AbstractSolver {
+
+	public static final String NAME = "LQNS";
+
+	/** options lqns is launched with by default **/
+	public static final String DEFAULT_OPTIONS = "-f"; //using the fast option
+
+	/** launches the batches that did not fill up in time **/
+	private static final ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "lqns-batch-timer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static final Logger logger = LoggerFactory.getLogger(LqnsSolver.class);
+
+	/** options lqns is launched with, separated by single spaces **/
+	private String options = DEFAULT_OPTIONS;
+	/** interval between samples of the lqns processes, 0 disables the sampling **/
+	private long resourceSamplingInterval;
+	/** models solved by each lqns process **/
+	private int batchSize;
+	/** milliseconds a batch waits to fill up **/
+	private long batchLinger;
+
+	// the batch being filled, launched on the executor of its last model
+	private final List<LqnsEvaluator> pendingBatch = new ArrayList<>();
+	private Executor pendingExecutor;
+	private ScheduledFuture<?> pendingLaunch;
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong batchedModels = new AtomicLong();
+	private final AtomicLong batchNanos = new AtomicLong();
+	private final AtomicLong batchOverheadNanos = new AtomicLong();
+
+	public LqnsSolver() {
+		super(NAME, "4.5.7.2");
+	}
+
+	@Override
+	public void init(Properties properties) throws IOException {
+		super.init(properties);
+		// normalized, so that the same flags give the same cache key
+		options = property(properties, "Options", DEFAULT_OPTIONS).trim().replaceAll("\\s+", " ");
+		resourceSamplingInterval = Long.parseLong(properties.getProperty("resourceSamplingInterval", "0"));
+		batchSize = Integer.parseInt(property(properties, "BatchSize", "1"));
+		batchLinger = Long.parseLong(property(properties, "BatchLinger", "100"));
+	}
+
+	@Override
+	public String getOptions() {
+		return options;
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.RESULT_FILE, Capability.RESOURCE_ACCOUNTING, Capability.TIMEOUT);
+	}
+
+	/**
+	 * One process for each core
+	 */
+	@Override
+	public int getConcurrencyLimit() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public CompletableFuture<EvaluationResult> submit(Path model, Executor executor, Executor parserExecutor) {
+		LqnsEvaluator eval = new LqnsEvaluator(model, this);
+		eval.setParserExecutor(parserExecutor);
+		eval.setTimeout(timeout);
+		eval.setCpuSet(cpuSet);
+		eval.setResourceSamplingInterval(resourceSamplingInterval);
+		if (batchSize > 1)
+			addToBatch(eval, executor);
+		else
+			executor.execute(eval);
+		return eval.getResult();
+	}
+
+	private void addToBatch(LqnsEvaluator eval, Executor executor) {
+		LqnsBatch full = null;
+		synchronized (pendingBatch) {
+			pendingBatch.add(eval);
+			pendingExecutor = executor;
+			if (pendingBatch.size() >= batchSize)
+				full = takeBatch();
+			else if (pendingLaunch == null)
+				pendingLaunch = batchTimer.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						launchPendingBatch();
+					}
+				}, batchLinger, TimeUnit.MILLISECONDS);
+		}
+		if (full != null)
+			launch(full, executor);
+	}
+
+	private void launchPendingBatch() {
+		LqnsBatch batch;
+		Executor executor;
+		synchronized (pendingBatch) {
+			if (pendingBatch.isEmpty())
+				return;
+			executor = pendingExecutor;
+			batch = takeBatch();
+		}
+		launch(batch, executor);
+	}
+
+	/**
+	 * Empties the pending batch, called holding its lock
+	 */
+	private LqnsBatch takeBatch() {
+		LqnsBatch batch = new LqnsBatch(pendingBatch, this, cpuSet, timeout, resourceSamplingInterval);
+		pendingBatch.clear();
+		if (pendingLaunch != null) {
+			pendingLaunch.cancel(false);
+			pendingLaunch = null;
+		}
+		return batch;
+	}
+
+	private void launch(LqnsBatch batch, Executor executor) {
+		try {
+			executor.execute(batch);
+		} catch (RejectedExecutionException e) {
+			logger.warn("Batch of lqns evaluations rejected", e);
+			batch.fail();
+		}
+	}
+
+	/**
+	 * Accounts a batch solved by a process
+	 */
+	void batchCompleted(int models, long nanos, long overheadNanos) {
+		batches.incrementAndGet();
+		batchedModels.addAndGet(models);
+		batchNanos.addAndGet(nanos);
+		batchOverheadNanos.addAndGet(overheadNanos);
+	}
+
+	@Override
+	public void logStatistics() {
+		long n = batches.get();
+		if (n == 0)
+			return;
+		logger.info("LQNS batches: "+n+" processes solved "+batchedModels.get()+" models, mean process time: "
+				+TimeUnit.NANOSECONDS.toMillis(batchNanos.get()/n)+" ms, mean start-up overhead: "
+				+TimeUnit.NANOSECONDS.toMillis(batchOverheadNanos.get()/n)+" ms per process");
+	}
+
+	@Override
+	public void close() {
+		launchPendingBatch();
+	}
+
+	@Override
+	public Path resultFilePath(Path model) {
+		return replaceExtension(model, ".lqxo");
+	}
+
+	@Override
+	public SolutionResult parseResults(Path model) throws IOException {
+		return new LQNSResultParser().parse(resultFilePath(model));
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+import it.polimi.modaclouds.qos.linebenchmark.mva.LayeredMva;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates a model with the layered MVA on the solver thread. The time
+ * includes reading the model, as the external solvers do.
+ */
+public class MvaEvaluator extends SolutionEvaluator {
+
+	private static final Logger logger = LoggerFactory.getLogger(MvaEvaluator.class);
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	public MvaEvaluator(Path instance, Solver solver) {
+		super(instance, solver);
+	}
+
+	@Override
+	protected void evaluate() {
+		StopWatch timer = new StopWatch();
+		EvaluationStatus status;
+		SolutionResult solution = null;
+		long cpu = threads.getCurrentThreadCpuTime();
+		long user = threads.getCurrentThreadUserTime();
+		timer.start();
+		try {
+			LqnModelType model = (LqnModelType) JAXBIntrospector.getValue(
+					MvaSolver.getContext().createUnmarshaller().unmarshal(filePath.toFile()));
+			LayeredMva mva = new LayeredMva(model);
+			status = mva.solve() ? EvaluationStatus.SUCCESS : EvaluationStatus.NOT_CONVERGED;
+			solution = mva.getResult();
+			logger.debug("Solved "+filePath.getFileName()+" in "+mva.getIterations()+" iterations");
+		} catch (IllegalArgumentException e) {
+			status = EvaluationStatus.INVALID_INPUT;
+			logger.error("Model "+filePath.getFileName()+" can not be solved with MVA: "+e.getMessage());
+		} catch (JAXBException e) {
+			status = EvaluationStatus.ERROR;
+			logger.error("Error in reading model "+filePath, e);
+		}
+		timer.stop();
+		cpu = threads.getCurrentThreadCpuTime() - cpu;
+		user = threads.getCurrentThreadUserTime() - user;
+
+		EvaluationCompletedEvent evaluationCompleted = completionEvent(status, timer.getNanoTime());
+		evaluationCompleted.setSolutionResult(solution);
+		// the user time is counted in clock ticks, the cpu time is precise
+		if (cpu >= 0 && user >= 0)
+			evaluationCompleted.setResources(new ProcessResources(Math.min(user, cpu), cpu - Math.min(user, cpu), 0, 0, 0));
+		evaluationCompleted(evaluationCompleted);
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+/**
+ * The layered approximate MVA solver of
+ * {@link it.polimi.modaclouds.qos.linebenchmark.mva.LayeredMva}, run inside
+ * the JVM. A fast baseline for LQNS and LINE, the results are kept in memory
+ * and are not written next to the model.
+ */
+public class MvaSolver extends AbstractSolver {
+
+	public static final String NAME = "MVA";
+
+	private static JAXBContext jaxbContext;
+
+	public MvaSolver() {
+		super(NAME, "1.0");
+	}
+
+	static synchronized JAXBContext getContext() throws JAXBException {
+		if (jaxbContext == null)
+			jaxbContext = JAXBContext.newInstance(LqnModelType.class);
+		return jaxbContext;
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return EnumSet.of(Capability.RESOURCE_ACCOUNTING);
+	}
+
+	/**
+	 * One evaluation for each core
+	 */
+	@Override
+	public int getConcurrencyLimit() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public CompletableFuture<EvaluationResult> submit(Path model, Executor executor, Executor parserExecutor) {
+		MvaEvaluator eval = new MvaEvaluator(model, this);
+		eval.setParserExecutor(parserExecutor);
+		executor.execute(eval);
+		return eval.getResult();
+	}
+
+	/**
+	 * No result file is written
+	 */
+	@Override
+	public Path resultFilePath(Path model) {
+		return null;
+	}
+
+	@Override
+	public SolutionResult parseResults(Path model) throws IOException {
+		throw new IOException(NAME + " does not write result files");
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resources used by a solver process and its descendants as reported by
+ * /proc on Linux: user and system cpu time, peak resident memory and bytes
+ * read and written. On other systems, or when the process is gone, samples
+ * are null.
+ */
+public class ProcessResources {
+
+	/** clock ticks per second used by /proc/[pid]/stat (USER_HZ) **/
+	private static final long CLOCK_TICKS = 100;
+	private static final long NANOS_PER_TICK = TimeUnit.SECONDS.toNanos(1) / CLOCK_TICKS;
+	private static final Path PROC = Paths.get("/proc");
+	/** Process.pid() on Java 9 and later, null on Java 8 **/
+	private static final MethodHandle PID = pidMethod();
+
+	private final long userCpuNanos;
+	private final long systemCpuNanos;
+	private final long peakRssBytes;
+	private final long readBytes;
+	private final long writeBytes;
+
+	public ProcessResources(long userCpuNanos, long systemCpuNanos, long peakRssBytes, long readBytes, long writeBytes) {
+		this.userCpuNanos = userCpuNanos;
+		this.systemCpuNanos = systemCpuNanos;
+		this.peakRssBytes = peakRssBytes;
+		this.readBytes = readBytes;
+		this.writeBytes = writeBytes;
+	}
+
+	public long getUserCpuNanos() {
+		return userCpuNanos;
+	}
+
+	public long getSystemCpuNanos() {
+		return systemCpuNanos;
+	}
+
+	public long getPeakRssBytes() {
+		return peakRssBytes;
+	}
+
+	public long getReadBytes() {
+		return readBytes;
+	}
+
+	public long getWriteBytes() {
+		return writeBytes;
+	}
+
+	/**
+	 * Resources used between the earlier sample and this one. The peak
+	 * memory is the one of this sample since the peak can not be split.
+	 */
+	public ProcessResources minus(ProcessResources earlier) {
+		return new ProcessResources(userCpuNanos - earlier.userCpuNanos, systemCpuNanos - earlier.systemCpuNanos,
+				peakRssBytes, readBytes - earlier.readBytes, writeBytes - earlier.writeBytes);
+	}
+
+	@Override
+	public String toString() {
+		return "user: " + TimeUnit.NANOSECONDS.toMillis(userCpuNanos) + "ms sys: "
+				+ TimeUnit.NANOSECONDS.toMillis(systemCpuNanos) + "ms peak rss: " + peakRssBytes / 1024
+				+ "KB read: " + readBytes + "B write: " + writeBytes + "B";
+	}
+
+	private static MethodHandle pidMethod() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Process.class, "pid", MethodType.methodType(long.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	public static boolean isSupported() {
+		return Files.isDirectory(PROC.resolve("self"));
+	}
+
+	/**
+	 * @return the pid of the process, -1 if it can not be retrieved
+	 */
+	public static long pidOf(Process process) {
+		if (PID != null)
+			try {
+				return (long) PID.invoke(process);
+			} catch (Throwable e) {
+				return -1;
+			}
+		// Java 8 has no Process.pid(), its private field is still accessible
+		try {
+			Field pid = process.getClass().getDeclaredField("pid");
+			pid.setAccessible(true);
+			return pid.getLong(process);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Samples the process, and all its descendants when requested, the peak
+	 * memory of a tree is the sum of the peaks of its processes
+	 * 
+	 * @return the sample, null if the process can not be read
+	 */
+	public static ProcessResources sample(long pid, boolean includeDescendants) {
+		if (pid < 0 || !isSupported())
+			return null;
+		long user = 0, system = 0, rss = 0, read = 0, write = 0;
+		boolean found = false;
+		List<Long> pids = new ArrayList<Long>();
+		if (includeDescendants)
+			pids = tree(pid);
+		else
+			pids.add(pid);
+		for (long p : pids) {
+			try {
+				String[] stat = stat(p);
+				user += Long.parseLong(stat[11]) * NANOS_PER_TICK;
+				system += Long.parseLong(stat[12]) * NANOS_PER_TICK;
+				rss += statusValue(p, "VmHWM:") * 1024;
+				read += ioValue(p, "rchar:");
+				write += ioValue(p, "wchar:");
+				found = true;
+			} catch (IOException | RuntimeException e) {
+				// the process has exited in the meanwhile
+			}
+		}
+		return found ? new ProcessResources(user, system, rss, read, write) : null;
+	}
+
+	/**
+	 * @return the pid followed by the pids of all its descendants
+	 */
+	public static List<Long> tree(long pid) {
+		List<Long> tree = new ArrayList<Long>();
+		tree.add(pid);
+		File[] processes = PROC.toFile().listFiles();
+		if (processes == null)
+			return tree;
+		List<long[]> parents = new ArrayList<long[]>();
+		for (File process : processes)
+			if (process.getName().matches("\\d+"))
+				try {
+					long p = Long.parseLong(process.getName());
+					parents.add(new long[] { p, Long.parseLong(stat(p)[1]) });
+				} catch (IOException | RuntimeException e) {
+					// the process has exited in the meanwhile
+				}
+		for (int i = 0; i < tree.size(); i++)
+			for (long[] parent : parents)
+				if (parent[1] == tree.get(i))
+					tree.add(parent[0]);
+		return tree;
+	}
+
+	/**
+	 * @return the pids of the children of the process, read from its main
+	 *         thread without scanning /proc, the whole tree when the kernel
+	 *         does not list the children
+	 */
+	public static List<Long> children(long pid) {
+		List<Long> children = new ArrayList<Long>();
+		try {
+			String list = new String(Files.readAllBytes(PROC.resolve(pid + "/task/" + pid + "/children")), StandardCharsets.US_ASCII);
+			for (String child : list.trim().split(" "))
+				if (!child.isEmpty())
+					children.add(Long.parseLong(child));
+		} catch (NoSuchFileException e) {
+			// the process has exited, or the kernel does not list children
+			if (Files.isDirectory(PROC.resolve(Long.toString(pid)))) {
+				List<Long> tree = tree(pid);
+				return tree.subList(1, tree.size());
+			}
+		} catch (IOException | RuntimeException e) {
+			// the process has exited in the meanwhile
+		}
+		return children;
+	}
+
+	/**
+	 * Fields of /proc/[pid]/stat after the command name, which may contain
+	 * spaces: index 0 is the state, 1 the parent pid, 11 utime and 12 stime
+	 */
+	private static String[] stat(long pid) throws IOException {
+		String stat = new String(Files.readAllBytes(PROC.resolve(pid + "/stat")), StandardCharsets.US_ASCII);
+		return stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+	}
+
+	private static long statusValue(long pid, String key) throws IOException {
+		return firstNumber(PROC.resolve(pid + "/status"), key);
+	}
+
+	private static long ioValue(long pid, String key) throws IOException {
+		return firstNumber(PROC.resolve(pid + "/io"), key);
+	}
+
+	private static long firstNumber(Path file, String key) throws IOException {
+		for (String line : Files.readAllLines(file, StandardCharsets.US_ASCII))
+			if (line.startsWith(key))
+				return Long.parseLong(line.substring(key.length()).trim().split("\\s+")[0]);
+		return 0;
+	}
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.awt.event.ActionListener;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The requests sent to a LINE instance and not answered yet, in a table of
+ * slots allocated once. Each request gets an id, sent with the model and
+ * echoed by LINE in its notifications, so the same model can be in flight
+ * many times. The id is the slot plus the capacity times a sequence number:
+ * ids of later requests are larger, and the id of a request answered or
+ * cancelled no longer matches its slot once it is reused.
+ * <p>
+ * Notifications without an id are matched to the oldest outstanding request
+ * of the model. Requests are added by the evaluator threads, notifications
+ * are matched by the connection thread only, removals can come from both.
+ */
+class RequestTable {
+
+	static final long NO_REQUEST = -1;
+
+	private final int capacity;
+	/** id of the request in each slot, NO_REQUEST when the slot is free **/
+	private final AtomicLongArray ids;
+	/** written before the id of the slot is published, cleared after it is removed **/
+	private final Path[] models;
+	private final ActionListener[] listeners;
+	private final ProcessResources[] resources;
+	/** arrival time of the SUBMITTED notification, owned by the connection thread **/
+	private final long[] acknowledgedAt;
+	private final boolean[] acknowledged;
+
+	/** stack of the free slots **/
+	private final int[] free;
+	private int freeSlots;
+	private long sequence = 0;
+
+	RequestTable(int capacity) {
+		this.capacity = capacity;
+		ids = new AtomicLongArray(capacity);
+		models = new Path[capacity];
+		listeners = new ActionListener[capacity];
+		resources = new ProcessResources[capacity];
+		acknowledgedAt = new long[capacity];
+		acknowledged = new boolean[capacity];
+		free = new int[capacity];
+		for (int s = 0; s < capacity; s++) {
+			ids.set(s, NO_REQUEST);
+			free[s] = capacity - 1 - s;
+		}
+		freeSlots = capacity;
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Adds a request, waiting for a free slot when the table is full
+	 * 
+	 * @return the id of the request
+	 */
+	long add(Path model, ActionListener listener, ProcessResources resources) throws InterruptedException {
+		int slot;
+		long id;
+		synchronized (this) {
+			while (freeSlots == 0)
+				wait();
+			slot = free[--freeSlots];
+			id = sequence++ * capacity + slot;
+		}
+		publish(slot, id, model, listener, resources);
+		return id;
+	}
+
+	/**
+	 * Adds a request if the table has a free slot, without waiting
+	 * 
+	 * @return the id of the request, NO_REQUEST if the table is full
+	 */
+	long tryAdd(Path model, ActionListener listener, ProcessResources resources) {
+		int slot;
+		long id;
+		synchronized (this) {
+			if (freeSlots == 0)
+				return NO_REQUEST;
+			slot = free[--freeSlots];
+			id = sequence++ * capacity + slot;
+		}
+		publish(slot, id, model, listener, resources);
+		return id;
+	}
+
+	private void publish(int slot, long id, Path model, ActionListener listener, ProcessResources resources) {
+		models[slot] = model.toAbsolutePath().normalize();
+		listeners[slot] = listener;
+		this.resources[slot] = resources;
+		acknowledged[slot] = false;
+		ids.set(slot, id);
+	}
+
+	/**
+	 * Finds the outstanding request a notification refers to: the one with
+	 * the id when LINE echoed it, otherwise the oldest one of the model. The
+	 * model echoed without a directory matches any directory.
+	 * 
+	 * @param unacknowledged
+	 *            true to consider only the requests not acknowledged yet
+	 * @return the id of the request, NO_REQUEST if none is outstanding
+	 */
+	long find(long id, Path model, boolean unacknowledged) {
+		if (id != NO_REQUEST)
+			return id >= 0 && ids.get(slot(id)) == id ? id : NO_REQUEST;
+		Path echoed = model.normalize();
+		long oldest = NO_REQUEST;
+		for (int s = 0; s < capacity; s++) {
+			long candidate = ids.get(s);
+			if (candidate == NO_REQUEST || (oldest != NO_REQUEST && candidate > oldest)
+					|| (unacknowledged && acknowledged[s]))
+				continue;
+			Path stored = models[s];
+			// the slot may have been freed and reused in the meanwhile
+			if (stored == null || ids.get(s) != candidate)
+				continue;
+			if (echoed.isAbsolute() ? stored.equals(echoed) : stored.getFileName().equals(echoed.getFileName()))
+				oldest = candidate;
+		}
+		return oldest;
+	}
+
+	void acknowledge(long id, long arrivalTime) {
+		int slot = slot(id);
+		acknowledgedAt[slot] = arrivalTime;
+		acknowledged[slot] = true;
+	}
+
+	/**
+	 * @return the arrival time of the SUBMITTED notification of the request,
+	 *         or the fallback if it has not been acknowledged
+	 */
+	long getAcknowledgedAt(long id, long fallback) {
+		int slot = slot(id);
+		return acknowledged[slot] ? acknowledgedAt[slot] : fallback;
+	}
+
+	/**
+	 * Last sample of the instance taken before the request was added, to be
+	 * read before removing the request
+	 */
+	ProcessResources getResources(long id) {
+		return resources[slot(id)];
+	}
+
+	/**
+	 * Removes the answered request and frees its slot
+	 * 
+	 * @return its listener, null if the request is not outstanding anymore
+	 */
+	ActionListener remove(long id) {
+		if (id < 0)
+			return null;
+		int slot = slot(id);
+		ActionListener listener = listeners[slot];
+		if (!ids.compareAndSet(slot, id, NO_REQUEST))
+			return null;
+		release(slot);
+		return listener;
+	}
+
+	/**
+	 * Removes the outstanding request of the listener, if any
+	 * 
+	 * @return the model of the request, null if the listener has no
+	 *         outstanding request
+	 */
+	Path remove(ActionListener listener) {
+		for (int s = 0; s < capacity; s++) {
+			long id = ids.get(s);
+			if (id != NO_REQUEST && listeners[s] == listener) {
+				Path model = models[s];
+				if (ids.compareAndSet(s, id, NO_REQUEST)) {
+					release(s);
+					return model;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void release(int slot) {
+		models[slot] = null;
+		listeners[slot] = null;
+		resources[slot] = null;
+		synchronized (this) {
+			free[freeSlots++] = slot;
+			notify();
+		}
+	}
+
+	private int slot(long id) {
+		return (int) (id % capacity);
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import it.polimi.modaclouds.qos.linebenchmark.lqn.LqnModelType;
+import it.polimi.modaclouds.qos.linebenchmark.lqn.ObjectFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of evaluation results addressed by the content of the
+ * model. The key is the hash of the model normalized through JAXB, so that
+ * formatting and attribute order do not matter, together with the solver
+ * name, version and options. Each entry stores the evaluation time and
+ * status and a copy of the result file produced by the solver.
+ */
+public class ResultCache {
+
+	private static final String ENTRY_EXTENSION = ".properties";
+	private static final String RESULT_EXTENSION = ".result";
+	private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+	private static JAXBContext jaxbContext;
+
+	private final Path directory;
+
+	public ResultCache(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+	}
+
+	private static synchronized JAXBContext getContext() throws JAXBException {
+		if (jaxbContext == null)
+			jaxbContext = JAXBContext.newInstance(LqnModelType.class);
+		return jaxbContext;
+	}
+
+	/**
+	 * Hash of the normalized model content, independent of the solver
+	 */
+	public static byte[] modelDigest(Path model) throws IOException {
+		try {
+			LqnModelType lqnModel = (LqnModelType) JAXBIntrospector.getValue(getContext().createUnmarshaller().unmarshal(model.toFile()));
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			Marshaller marshaller = getContext().createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+			OutputStream out = new DigestOutputStream(new NullOutputStream(), digest);
+			marshaller.marshal(new ObjectFactory().createLqnModel(lqnModel), out);
+			out.close();
+			return digest.digest();
+		} catch (JAXBException | NoSuchAlgorithmException e) {
+			throw new IOException("Could not compute the hash of model " + model, e);
+		}
+	}
+
+	/**
+	 * Cache key of the evaluation of the model with a configuration of a solver
+	 */
+	public static String key(byte[] modelDigest, String solver, String version, String options) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(modelDigest);
+			digest.update(("\n" + solver + "\n" + version + "\n" + options).getBytes(StandardCharsets.UTF_8));
+			return toHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	/**
+	 * Looks up the entry, when found the cached result file is restored in
+	 * resultFile and the cached result, relative to the given model, is
+	 * returned. Returns null on a miss.
+	 */
+	public EvaluationResult lookup(String key, Path model, Path resultFile) {
+		Path entry = directory.resolve(key + ENTRY_EXTENSION);
+		if (!Files.exists(entry))
+			return null;
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(entry)) {
+			properties.load(in);
+			Path cachedResult = directory.resolve(key + RESULT_EXTENSION);
+			if (resultFile != null && Files.exists(cachedResult))
+				Files.copy(cachedResult, resultFile, StandardCopyOption.REPLACE_EXISTING);
+			return new EvaluationResult(model.getFileName(), properties.getProperty("solver"),
+					Long.parseLong(properties.getProperty("evaluationTimeNanos")),
+					EvaluationStatus.valueOf(properties.getProperty("status")), true);
+		} catch (IOException | RuntimeException e) {
+			logger.error("Corrupted cache entry " + entry + ", ignoring it", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the result of an evaluation and a copy of its result file
+	 */
+	public void store(String key, EvaluationResult result, Path resultFile) {
+		Properties properties = new Properties();
+		properties.setProperty("model", result.getModelPath().toString());
+		properties.setProperty("solver", result.getSolverName());
+		properties.setProperty("evaluationTimeNanos", "" + result.getEvaluationTimeNanos());
+		properties.setProperty("status", result.getStatus().name());
+		try {
+			if (resultFile != null && Files.exists(resultFile))
+				Files.copy(resultFile, directory.resolve(key + RESULT_EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+			// write the entry last and atomically, it marks the entry as complete
+			Path tmp = Files.createTempFile(directory, key, ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				properties.store(out, null);
+			}
+			Files.move(tmp, directory.resolve(key + ENTRY_EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.error("Could not store the cache entry for model " + result.getModelPath(), e);
+		}
+	}
+
+	private static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams a solver result file with StAX and collects the metrics of
+ * processors, tasks and entries without building the document tree.
+ */
+public abstract class ResultParser {
+
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	static {
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	public SolutionResult parse(Path resultFile) throws IOException {
+		SolutionResult.Builder builder = new SolutionResult.Builder();
+		try (InputStream in = Files.newInputStream(resultFile)) {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				while (reader.hasNext())
+					if (reader.next() == XMLStreamConstants.START_ELEMENT)
+						startElement(reader, builder);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Error in parsing the result file " + resultFile, e);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Called on each element, the reader is positioned on its start tag
+	 */
+	protected abstract void startElement(XMLStreamReader reader, SolutionResult.Builder builder);
+
+	/**
+	 * @return the value of the first of the attributes present on the
+	 *         current element, NaN if none is
+	 */
+	protected static double attribute(XMLStreamReader reader, String... names) {
+		for (String name : names) {
+			String value = reader.getAttributeValue(null, name);
+			if (value != null)
+				return Double.parseDouble(value);
+		}
+		return Double.NaN;
+	}
+
+}
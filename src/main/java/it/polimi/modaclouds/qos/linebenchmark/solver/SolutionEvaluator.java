@@ -17,54 +17,71 @@
 package it.polimi.modaclouds.qos.linebenchmark.solver;
 
 
-import it.polimi.modaclouds.qos.linebenchmark.main.Main;
-
-import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SolutionEvaluator implements Runnable, ActionListener{
-
-	// Return values of lqns
-	/** The Constant LQNS_RETURN_SUCCESS. */
-	private static final int LQNS_RETURN_SUCCESS = 0;
-	
-	/** The Constant LQNS_RETURN_MODEL_FAILED_TO_CONVERGE. */
-	private static final int LQNS_RETURN_MODEL_FAILED_TO_CONVERGE = 1;
-
-	/** The Constant LQNS_RETURN_INVALID_INPUT. */
-	private static final int LQNS_RETURN_INVALID_INPUT = 2;
-
-	/** The Constant LQNS_RETURN_FATAL_ERROR. */
-	private static final int LQNS_RETURN_FATAL_ERROR = -1;
+/**
+ * A single evaluation of a model by a solver, run on the executor of the
+ * solver. Subclasses run the solver in {@link #evaluate()} and report its
+ * outcome with {@link #evaluationCompleted(EvaluationCompletedEvent)}, an
+ * evaluation that throws instead completes as an ERROR.
+ */
+public abstract class SolutionEvaluator implements Runnable {
 
-	private LineServerHandler handler;
+	/** executor the results are parsed on, null to parse on the solver thread **/
+	private Executor parserExecutor;
 	
 	private static final Logger logger = LoggerFactory.getLogger(SolutionEvaluator.class);
 
 	Path filePath; 
-	Path resultfilePath;	
-	String solver;
-	//LqnResultParser resultParser;	
-	ArrayList<ActionListener> listeners = new ArrayList<>();
-
-	public SolutionEvaluator(Path instance, String solver) {
+	Solver solver;
+	/** milliseconds after which the evaluation is abandoned, 0 for no limit **/
+	long timeout = 0;
+	/** registered from any thread, notified by the thread completing the evaluation **/
+	List<ActionListener> listeners = new CopyOnWriteArrayList<>();
+	/** completed once the evaluation has been notified to the listeners **/
+	private final CompletableFuture<EvaluationResult> result = new CompletableFuture<>();
+	/** set by the first report of the outcome, the later ones are ignored **/
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+	public SolutionEvaluator(Path instance, Solver solver) {
 		this.solver = solver;
 		filePath = instance;
 	}
 
-	public void setLineServerHandler(LineServerHandler handler){
-		this.handler=handler;
+	@Override
+	public final void run() {
+		try {
+			evaluate();
+		} catch (RuntimeException e) {
+			logger.error("Error in evaluating model "+filePath.getFileName(), e);
+			// waiting for the result must never hang
+			evaluationCompleted(completionEvent(EvaluationStatus.ERROR, 0));
+		}
+	}
+
+	/**
+	 * Runs the solver on the model and reports its outcome, possibly from
+	 * another thread
+	 */
+	protected abstract void evaluate();
+
+	public void setParserExecutor(Executor parserExecutor){
+		this.parserExecutor=parserExecutor;
+	}
+
+	public void setTimeout(long timeout){
+		this.timeout=timeout;
 	}
 
 	public void addListener(ActionListener listener){
@@ -76,125 +93,78 @@ public class SolutionEvaluator implements Runnable, ActionListener{
 		listeners.remove(listener);		
 	}
 
-	public void run() {
-
-		//run the evaluator
-		if(solver.equals(Main.LQNS_SOLVER))
-			runWithLQNS();		
-		//Evaluate with LINE
-		else
-			runWithLINE();
-
-		//parse the results
-		//parseResults();
+	public CompletableFuture<EvaluationResult> getResult() {
+		return result;
 	}
 
-	public void parseResults(){		
-		if(solver.equals(Main.LQNS_SOLVER)){
-			resultfilePath = Paths.get(filePath.toString().substring(0,filePath.toString().lastIndexOf('.'))+".lqxo");
-			//resultParser = new LQNSResultParser(resultfilePath);
-		}
-		else{
-			resultfilePath = Paths.get(filePath.toString().substring(0,filePath.toString().lastIndexOf('.'))+"_res.xml");
-			//resultParser = new LINEResultParser(resultfilePath);
-		}
-
+	public SolutionResult parseResults(){		
 		//parse the results and save them
-	}
-
-	private void runWithLINE(){
-		if(handler==null){
-			System.err.println("LINE server handle not initialized");
-			return;
+		try {
+			return solver.parseResults(filePath);
+		} catch (IOException | RuntimeException e) {
+			// malformed values in the result file included
+			logger.error("Error in parsing the results of model "+filePath.getFileName(),e);
+			return null;
 		}
-		handler.addListener(filePath,this);	
-		handler.solve(filePath, null);
-
 	}
 
-
-	private void runWithLQNS(){
-		StopWatch timer = new StopWatch();
-		String solverProgram = "lqns";
-
-		String command = solverProgram+" "+filePath+" -f"; //using the fast option
-		logger.info("Launch: "+command);
-		//String command = solverProgram+" "+filePath; //without using the fast option
-		try {		
-			ProcessBuilder pb = new ProcessBuilder(splitToCommandArray(command));
-
-			//start counting
-			timer.start();
-			Process proc = pb.start();
-			readStream(proc.getInputStream(),false);
-			readStream(proc.getErrorStream(),true);
-			int exitVal = proc.waitFor();
-			//stop counting
-			timer.stop();
-			proc.destroy();
-
-
-
-			//evaluation error messages
-			if(exitVal == LQNS_RETURN_SUCCESS);
-			else if (exitVal == LQNS_RETURN_MODEL_FAILED_TO_CONVERGE) {
-				System.err.println(Main.LQNS_SOLVER
-						+ " exited with "
-						+ exitVal
-						+ ": The model failed to converge. Results are most likely inaccurate. ");
-				System.err.println("Analysis Result has been written to: " + resultfilePath);
-			} else {
-				String message = "";
-				if (exitVal == LQNS_RETURN_INVALID_INPUT) {
-					message = solverProgram + " exited with " + exitVal
-							+ ": Invalid Input.";
-				} else if (exitVal == LQNS_RETURN_FATAL_ERROR) {
-					message = solverProgram + " exited with " + exitVal
-							+ ": Fatal error";
-				} else {
-					message = solverProgram
-							+ " returned an unrecognised exit value "
-							+ exitVal
-							+ ". Key: 0 on success, 1 if the model failed to meet the convergence criteria, 2 if the input was invalid, 4 if a command line argument was incorrect, 8 for file read/write problems and -1 for fatal errors. If multiple input files are being processed, the exit code is the bit-wise OR of the above conditions.";
-				}
-				System.err.println(message);
-			}					
-		} catch (IOException | InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		//tell listeners that the evaluation has been performed
-		EvaluationCompletedEvent evaluationCompleted= new EvaluationCompletedEvent(this,  0,  null);
-		evaluationCompleted.setEvaluationTime(timer.getTime());
-		evaluationCompleted.setSolverName(solver);
+	/**
+	 * Builds the event reporting the outcome of this evaluation
+	 */
+	protected EvaluationCompletedEvent completionEvent(EvaluationStatus status, long evaluationTimeNanos) {
+		EvaluationCompletedEvent evaluationCompleted = new EvaluationCompletedEvent(this, 0, null);
+		evaluationCompleted.setEvaluationTimeNanos(evaluationTimeNanos);
+		evaluationCompleted.setSolverName(solver.getName());
 		evaluationCompleted.setModelPath(filePath.getFileName());
-		for(ActionListener l:listeners)
-			l.actionPerformed(evaluationCompleted);
-	}
-
-
-	private String[] splitToCommandArray(String command) {
-		return command.split("\\s");
+		evaluationCompleted.setStatus(status);
+		return evaluationCompleted;
 	}
 
-	private void readStream(InputStream is,boolean show) {
-		try {
-			InputStreamReader isr = new InputStreamReader(is);
-			BufferedReader br = new BufferedReader(isr);
-			String line = null;
-			while ((line = br.readLine()) != null){
-				if(show)
-					logger.info("Pb: "+line);
-			}
-
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
+	/**
+	 * Parses the results, off the solver thread when a parser executor is
+	 * set and the solver has not already provided them, then notifies the
+	 * listeners and completes the result. The result is completed, as an
+	 * ERROR when the notification fails, even if a listener throws. Only
+	 * the first outcome reported is notified.
+	 */
+	protected void evaluationCompleted(final EvaluationCompletedEvent evaluationCompleted) {
+		if (!completed.compareAndSet(false, true)) {
+			logger.debug("Evaluation of model "+filePath.getFileName()+" already completed, ignoring "+evaluationCompleted.getStatus());
+			return;
 		}
-	}
-
-	@Override
-	public void actionPerformed(ActionEvent e) {
-		for(ActionListener l:listeners)
-			l.actionPerformed(e);
+		Runnable notification = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					if(evaluationCompleted.getSolutionResult() == null
+							&& (evaluationCompleted.getStatus() == EvaluationStatus.SUCCESS
+							|| evaluationCompleted.getStatus() == EvaluationStatus.NOT_CONVERGED))
+						evaluationCompleted.setSolutionResult(parseResults());
+					for(ActionListener l:listeners)
+						try {
+							l.actionPerformed(evaluationCompleted);
+						} catch (RuntimeException e) {
+							logger.error("Error in notifying the evaluation of model "+filePath.getFileName(),e);
+						}
+					result.complete(new EvaluationResult(evaluationCompleted));
+				} catch (RuntimeException e) {
+					logger.error("Error in completing the evaluation of model "+filePath.getFileName(),e);
+				} finally {
+					// waiting for the result must never hang
+					if (!result.isDone())
+						result.complete(new EvaluationResult(filePath.getFileName(), solver.getName(), 0, EvaluationStatus.ERROR));
+				}
+			}
+		};
+		if(parserExecutor != null)
+			try {
+				parserExecutor.execute(notification);
+			} catch (RejectedExecutionException e) {
+				// the parsers have been shut down
+				notification.run();
+			}
+		else
+			notification.run();
 	}
 }
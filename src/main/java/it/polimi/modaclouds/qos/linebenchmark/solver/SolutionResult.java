@@ -0,0 +1,127 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.util.Arrays;
+
+/**
+ * Compact record of the metrics computed by a solver. Processors, tasks and
+ * entries are stored in parallel primitive arrays, one per metric, indexed
+ * by the position of the element in the result file. Metrics not reported
+ * by the solver are NaN.
+ */
+public class SolutionResult {
+
+	public enum Level {
+		PROCESSOR, TASK, ENTRY
+	}
+
+	private final String[][] names;
+	private final double[][] utilization;
+	private final double[][] throughput;
+	private final double[][] responseTime;
+
+	private SolutionResult(String[][] names, double[][] utilization, double[][] throughput, double[][] responseTime) {
+		this.names = names;
+		this.utilization = utilization;
+		this.throughput = throughput;
+		this.responseTime = responseTime;
+	}
+
+	public int size(Level level) {
+		return names[level.ordinal()].length;
+	}
+
+	public String getName(Level level, int i) {
+		return names[level.ordinal()][i];
+	}
+
+	public double getUtilization(Level level, int i) {
+		return utilization[level.ordinal()][i];
+	}
+
+	public double getThroughput(Level level, int i) {
+		return throughput[level.ordinal()][i];
+	}
+
+	public double getResponseTime(Level level, int i) {
+		return responseTime[level.ordinal()][i];
+	}
+
+	/**
+	 * @return the position of the named element, -1 if it is not in the result
+	 */
+	public int indexOf(Level level, String name) {
+		String[] levelNames = names[level.ordinal()];
+		for (int i = 0; i < levelNames.length; i++)
+			if (levelNames[i].equals(name))
+				return i;
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return "processors: " + size(Level.PROCESSOR) + " tasks: " + size(Level.TASK) + " entries: " + size(Level.ENTRY);
+	}
+
+	/**
+	 * Accumulates the metrics while the result file is streamed
+	 */
+	public static class Builder {
+
+		private static final int INITIAL_CAPACITY = 16;
+		private static final int LEVELS = Level.values().length;
+
+		private final int[] sizes = new int[LEVELS];
+		private final String[][] names = new String[LEVELS][INITIAL_CAPACITY];
+		private final double[][] utilization = new double[LEVELS][INITIAL_CAPACITY];
+		private final double[][] throughput = new double[LEVELS][INITIAL_CAPACITY];
+		private final double[][] responseTime = new double[LEVELS][INITIAL_CAPACITY];
+
+		public Builder add(Level level, String name, double utilization, double throughput, double responseTime) {
+			int l = level.ordinal();
+			int i = sizes[l]++;
+			if (i == names[l].length) {
+				int capacity = i * 2;
+				names[l] = Arrays.copyOf(names[l], capacity);
+				this.utilization[l] = Arrays.copyOf(this.utilization[l], capacity);
+				this.throughput[l] = Arrays.copyOf(this.throughput[l], capacity);
+				this.responseTime[l] = Arrays.copyOf(this.responseTime[l], capacity);
+			}
+			names[l][i] = name;
+			this.utilization[l][i] = utilization;
+			this.throughput[l][i] = throughput;
+			this.responseTime[l][i] = responseTime;
+			return this;
+		}
+
+		public SolutionResult build() {
+			String[][] n = new String[LEVELS][];
+			double[][] u = new double[LEVELS][];
+			double[][] x = new double[LEVELS][];
+			double[][] r = new double[LEVELS][];
+			for (int l = 0; l < LEVELS; l++) {
+				n[l] = Arrays.copyOf(names[l], sizes[l]);
+				u[l] = Arrays.copyOf(utilization[l], sizes[l]);
+				x[l] = Arrays.copyOf(throughput[l], sizes[l]);
+				r[l] = Arrays.copyOf(responseTime[l], sizes[l]);
+			}
+			return new SolutionResult(n, u, x, r);
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A backend able to evaluate LQN models. Implementations are discovered with
+ * {@link java.util.ServiceLoader}, listed in
+ * META-INF/services/it.polimi.modaclouds.qos.linebenchmark.solver.Solver, and
+ * configured from the evaluation properties prefixed by the lower case name
+ * of the solver (e.g. lqnsTimeout, lineCpuSet).
+ */
+public interface Solver {
+
+	/**
+	 * Optional features of a solver the harness relies on
+	 */
+	enum Capability {
+		/** the results are written to a file next to the model, so they can be cached */
+		RESULT_FILE,
+		/** the cpu, memory and i/o used by each evaluation are measured */
+		RESOURCE_ACCOUNTING,
+		/** evaluations exceeding the timeout are abandoned and reported as TIMEOUT */
+		TIMEOUT
+	}
+
+	/**
+	 * Name the solver is selected with and results are reported under
+	 */
+	String getName();
+
+	/**
+	 * Version of the solver, part of the key of cached results
+	 */
+	String getVersion();
+
+	/**
+	 * Options the solver is run with, part of the key of cached results
+	 */
+	String getOptions();
+
+	Set<Capability> getCapabilities();
+
+	/**
+	 * Number of evaluations the solver can carry out at once when the
+	 * concurrency is not configured
+	 */
+	int getConcurrencyLimit();
+
+	/**
+	 * Configures the solver and acquires the resources it needs, called once
+	 * before the first evaluation
+	 */
+	void init(Properties properties) throws IOException;
+
+	/**
+	 * Evaluates the model on the executor. The future is completed once the
+	 * results have been parsed on the parser executor.
+	 */
+	CompletableFuture<EvaluationResult> submit(Path model, Executor executor, Executor parserExecutor);
+
+	/**
+	 * Path of the file the solver writes the results of the model to
+	 */
+	Path resultFilePath(Path model);
+
+	/**
+	 * Reads the results of an evaluation of the model
+	 */
+	SolutionResult parseResults(Path model) throws IOException;
+
+	void logStatistics();
+
+	/**
+	 * Releases the resources of the solver, no more evaluations are submitted
+	 */
+	void close();
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.standin;
+
+import it.polimi.modaclouds.qos.linebenchmark.model.CompiledModel;
+import it.polimi.modaclouds.qos.linebenchmark.mva.LayeredMva;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stand-in for the LINE server speaking its text protocol, to measure and
+ * test the harness without MATLAB. It prints "Listening on port" once the
+ * socket is open and greets each connection with "LINE READY"; every
+ * "SOLVE model [RE file]" is answered at once with "MODEL model SUBMITTED"
+ * and, after a synthetic service time, with "MODEL model_res.xml SOLVED"
+ * (or FAILED); "QUIT" prints "LINE STOP" and stops the server. A request id
+ * sent as "SOLVE model [RE file] ID id" is appended to both answers as
+ * " ID id", unless standInEchoIds is false.
+ * 
+ * Configured from a LINE property file (the first argument) with:
+ * <ul>
+ * <li>port: port to listen on</li>
+ * <li>standInServiceTime: distribution of the service times, see
+ * {@link ServiceTime} (default constant:0)</li>
+ * <li>standInConcurrency: models solved at the same time (default the
+ * number of cores), the others wait</li>
+ * <li>standInFailureRate: fraction of the models answered as FAILED</li>
+ * <li>standInResults: mva to write a result file computed by the layered
+ * MVA, none to write nothing (default mva)</li>
+ * <li>standInEchoIds: false to answer without the request ids, as LINE
+ * versions unaware of them do (default true)</li>
+ * </ul>
+ * The service time of a model is the largest between the sampled one and
+ * the time spent writing its results. The mean service time is logged on
+ * exit: the difference with the LINE time recorded by the harness is the
+ * overhead of the harness.
+ */
+public class LineStandIn {
+
+	public static final String RESULTS_MVA = "mva";
+	public static final String RESULTS_NONE = "none";
+
+	private static final Logger logger = LoggerFactory.getLogger(LineStandIn.class);
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	private final int port;
+	private final ServiceTime serviceTime;
+	private final int concurrency;
+	private final double failureRate;
+	private final boolean writeResults;
+	private final boolean echoIds;
+	private final ExecutorService solvers;
+	private ServerSocket serverSocket;
+	private volatile boolean running;
+
+	private final AtomicLong solved = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong serviceNanos = new AtomicLong();
+	/** from the SOLVE command to the answer, including the wait for a solver **/
+	private final AtomicLong responseNanos = new AtomicLong();
+
+	public LineStandIn(Properties properties) {
+		port = Integer.parseInt(properties.getProperty("port", "5463"));
+		serviceTime = ServiceTime.parse(properties.getProperty("standInServiceTime", "constant:0"));
+		concurrency = Integer.parseInt(properties.getProperty("standInConcurrency", ""+Runtime.getRuntime().availableProcessors()));
+		failureRate = Double.parseDouble(properties.getProperty("standInFailureRate", "0"));
+		String results = properties.getProperty("standInResults", RESULTS_MVA);
+		if (!results.equals(RESULTS_MVA) && !results.equals(RESULTS_NONE))
+			throw new IllegalArgumentException("Unknown standInResults: "+results);
+		writeResults = results.equals(RESULTS_MVA);
+		echoIds = Boolean.valueOf(properties.getProperty("standInEchoIds", "true"));
+		solvers = Executors.newFixedThreadPool(concurrency, daemonThreads("standin-solver"));
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name+"-"+count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Opens the socket and serves the connections until QUIT is received
+	 */
+	public void serve() throws IOException {
+		serverSocket = new ServerSocket(port);
+		running = true;
+		System.out.println("Listening on port "+port);
+		System.out.flush();
+		ThreadFactory connections = daemonThreads("standin-connection");
+		try {
+			while (running) {
+				final Socket socket = serverSocket.accept();
+				connections.newThread(new Runnable() {
+					@Override
+					public void run() {
+						handle(socket);
+					}
+				}).start();
+			}
+		} catch (SocketException e) {
+			if (running)
+				throw e;
+		} finally {
+			solvers.shutdown();
+		}
+		System.out.println("LINE STOP");
+		System.out.flush();
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			if (serverSocket != null)
+				serverSocket.close();
+		} catch (IOException e) {
+			logger.warn("Error in closing the server socket", e);
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (Socket connection = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+			final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(connection.getOutputStream())));
+			reply(out, "LINE READY");
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.startsWith("SOLVE ")) {
+					String[] tokens = line.split("\\s+");
+					final String model = tokens[1];
+					final String id = echoIds && tokens.length > 3 && tokens[tokens.length-2].equals("ID")
+							? " ID "+tokens[tokens.length-1] : "";
+					final long submitted = System.nanoTime();
+					reply(out, "MODEL "+model+" SUBMITTED"+id);
+					solvers.execute(new Runnable() {
+						@Override
+						public void run() {
+							solve(model, id, out, submitted);
+						}
+					});
+				} else if (line.equals("QUIT")) {
+					stop();
+					break;
+				} else if (!line.isEmpty())
+					logger.warn("Unknown command: "+line);
+			}
+		} catch (IOException e) {
+			if (running)
+				logger.info("Connection closed: "+e.getMessage());
+		}
+	}
+
+	private void solve(String model, String id, PrintWriter out, long submitted) {
+		long start = System.nanoTime();
+		long deadline = start + serviceTime.sample(ThreadLocalRandom.current());
+		boolean success = ThreadLocalRandom.current().nextDouble() >= failureRate;
+		Path resultFile = Paths.get(model.replaceFirst("\\.xml$", "") + "_res.xml");
+		if (success && writeResults)
+			try {
+				writeResults(Paths.get(model), resultFile);
+			} catch (IOException | IllegalArgumentException e) {
+				logger.warn("Could not solve model "+model+": "+e.getMessage());
+				success = false;
+			}
+		long now;
+		while ((now = System.nanoTime()) < deadline)
+			LockSupport.parkNanos(deadline - now);
+		serviceNanos.addAndGet(now - start);
+		responseNanos.addAndGet(now - submitted);
+		if (success) {
+			solved.incrementAndGet();
+			reply(out, "MODEL "+resultFile+" SOLVED"+id);
+		} else {
+			failed.incrementAndGet();
+			reply(out, "MODEL "+model+" FAILED"+id);
+		}
+	}
+
+	private static void reply(PrintWriter out, String message) {
+		synchronized (out) {
+			out.println(message);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Solves the model with the layered MVA and writes the metrics with the
+	 * attributes of a LINE result file
+	 */
+	private static void writeResults(Path model, Path resultFile) throws IOException {
+		LayeredMva mva = new LayeredMva(CompiledModel.compile(model));
+		mva.solve();
+		SolutionResult result = mva.getResult();
+		try (OutputStream stream = Files.newOutputStream(resultFile)) {
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(stream, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("LINE");
+			writer.writeAttribute("model", model.getFileName().toString());
+			for (Level level : Level.values())
+				for (int i = 0; i < result.size(level); i++) {
+					writer.writeEmptyElement(level.name().toLowerCase());
+					writer.writeAttribute("name", result.getName(level, i));
+					writeMetric(writer, "util", result.getUtilization(level, i));
+					writeMetric(writer, "tput", result.getThroughput(level, i));
+					writeMetric(writer, "respT", result.getResponseTime(level, i));
+				}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not write "+resultFile, e);
+		}
+	}
+
+	private static void writeMetric(XMLStreamWriter writer, String name, double value) throws XMLStreamException {
+		if (!Double.isNaN(value))
+			writer.writeAttribute(name, Double.toString(value));
+	}
+
+	public void logStatistics() {
+		long n = solved.get() + failed.get();
+		logger.info("Stand-in answered "+n+" models ("+failed.get()+" failed) with "+concurrency+" solvers"
+				+(n > 0 ? ", mean service time: "+TimeUnit.NANOSECONDS.toMicros(serviceNanos.get()/n)/1000.0
+				+" ms, mean response time: "+TimeUnit.NANOSECONDS.toMicros(responseNanos.get()/n)/1000.0+" ms" : ""));
+	}
+
+	/**
+	 * @param args
+	 *            the LINE property file, the port can be overridden by a
+	 *            second argument
+	 */
+	public static void main(String[] args) {
+		Properties properties = new Properties();
+		if (args.length > 0)
+			try (FileInputStream input = new FileInputStream(args[0])) {
+				properties.load(input);
+			} catch (IOException e) {
+				logger.error("Error in reading the property file "+args[0], e);
+				return;
+			}
+		if (args.length > 1)
+			properties.setProperty("port", args[1]);
+		final LineStandIn standIn = new LineStandIn(properties);
+		//also when killed
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				standIn.logStatistics();
+			}
+		});
+		try {
+			standIn.serve();
+		} catch (IOException e) {
+			logger.error("Error in serving on port "+properties.getProperty("port", "5463"), e);
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.standin;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distribution of the synthetic service times of the stand-in, written as
+ * kind:parameters with times in milliseconds:
+ * <ul>
+ * <li>constant:t</li>
+ * <li>exp:mean</li>
+ * <li>uniform:min:max</li>
+ * <li>lognormal:mean:cv (cv is the coefficient of variation)</li>
+ * </ul>
+ */
+public abstract class ServiceTime {
+
+	/**
+	 * @return a service time in nanoseconds
+	 */
+	public abstract long sample(Random random);
+
+	public static ServiceTime parse(String spec) {
+		String[] fields = spec.trim().split(":");
+		try {
+			switch (fields[0]) {
+			case "constant":
+				final long constant = nanos(Double.parseDouble(fields[1]));
+				return new ServiceTime() {
+					@Override
+					public long sample(Random random) {
+						return constant;
+					}
+				};
+			case "exp":
+				final double mean = Double.parseDouble(fields[1]);
+				return new ServiceTime() {
+					@Override
+					public long sample(Random random) {
+						return nanos(-mean * Math.log(1 - random.nextDouble()));
+					}
+				};
+			case "uniform":
+				final double min = Double.parseDouble(fields[1]);
+				final double max = Double.parseDouble(fields[2]);
+				return new ServiceTime() {
+					@Override
+					public long sample(Random random) {
+						return nanos(min + (max - min) * random.nextDouble());
+					}
+				};
+			case "lognormal":
+				double m = Double.parseDouble(fields[1]);
+				double cv = Double.parseDouble(fields[2]);
+				final double sigma = Math.sqrt(Math.log(1 + cv * cv));
+				final double mu = Math.log(m) - sigma * sigma / 2;
+				return new ServiceTime() {
+					@Override
+					public long sample(Random random) {
+						return nanos(Math.exp(mu + sigma * random.nextGaussian()));
+					}
+				};
+			default:
+				throw new IllegalArgumentException("Unknown service time distribution: " + spec);
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed service time distribution: " + spec, e);
+		}
+	}
+
+	private static long nanos(double millis) {
+		return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.stats;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the times of the measured trials per model and per solver and
+ * reports their statistics. Cached and failed evaluations are not timed
+ * and are left out.
+ */
+public class BenchmarkReport {
+
+	private static final Logger logger = LoggerFactory.getLogger(BenchmarkReport.class);
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	private final ConcurrentMap<String, ConcurrentMap<Path, TrialStatistics>> modelStatistics = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, TrialStatistics> solverStatistics = new ConcurrentHashMap<>();
+
+	public void record(EvaluationResult result) {
+		if (result.isCached() || (result.getStatus() != EvaluationStatus.SUCCESS
+				&& result.getStatus() != EvaluationStatus.NOT_CONVERGED))
+			return;
+		String solver = result.getSolverName();
+		modelStatistics.computeIfAbsent(solver, k -> new ConcurrentHashMap<>())
+			.computeIfAbsent(result.getModelPath(), k -> new TrialStatistics())
+			.record(result.getEvaluationTimeNanos());
+		solverStatistics.computeIfAbsent(solver, k -> new TrialStatistics())
+			.record(result.getEvaluationTimeNanos());
+	}
+
+	public TrialStatistics getSolverStatistics(String solver) {
+		return solverStatistics.get(solver);
+	}
+
+	public TrialStatistics getModelStatistics(String solver, Path model) {
+		Map<Path, TrialStatistics> models = modelStatistics.get(solver);
+		return models == null ? null : models.get(model);
+	}
+
+	/**
+	 * Logs one line per model and solver and one summary line per solver,
+	 * times are in milliseconds
+	 */
+	public void log() {
+		logger.info("Solver, Model, Trials, Mean, StdDev, p50, p95, p99, CI95 low, CI95 high (ms)");
+		for (String solver : new TreeMap<>(modelStatistics).keySet()) {
+			for (Map.Entry<Path, TrialStatistics> e : new TreeMap<>(modelStatistics.get(solver)).entrySet())
+				logger.info(line(solver, e.getKey().toString(), e.getValue()));
+		}
+		for (String solver : new TreeMap<>(solverStatistics).keySet())
+			logger.info(line(solver, "ALL", solverStatistics.get(solver)));
+	}
+
+	private static String line(String solver, String model, TrialStatistics s) {
+		double mean = s.getMean() / NANOS_PER_MILLI;
+		double ci = s.getConfidenceInterval95() / NANOS_PER_MILLI;
+		return String.format("%s, %s, %d, %.3f, %.3f, %.3f, %.3f, %.3f, %.3f, %.3f", solver, model, s.getCount(), mean,
+				s.getStdDev() / NANOS_PER_MILLI, s.getPercentile(50) / NANOS_PER_MILLI,
+				s.getPercentile(95) / NANOS_PER_MILLI, s.getPercentile(99) / NANOS_PER_MILLI, mean - ci, mean + ci);
+	}
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.stats;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.ProcessResources;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends one record per completed evaluation to a CSV or JSON Lines file.
+ * Records are formatted on the completion path and written by a dedicated
+ * thread, the file is flushed whenever there are no more records waiting so
+ * that the results written so far survive a crash.
+ */
+public class ResultSink {
+
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_JSONL = "jsonl";
+
+	private static final String CSV_HEADER = "model,solver,trial,submitted,completed,timeNanos,status,cached,"
+			+ "userCpuNanos,systemCpuNanos,peakRssBytes,readBytes,writeBytes";
+	/** tells the writer there are no more records **/
+	private static final String END = new String("END");
+	private static final Logger logger = LoggerFactory.getLogger(ResultSink.class);
+
+	private final String format;
+	private final BlockingQueue<String> records = new LinkedBlockingQueue<>();
+	private final Thread writer;
+
+	public ResultSink(final Path file, String format) throws IOException {
+		if (!format.equals(FORMAT_CSV) && !format.equals(FORMAT_JSONL))
+			throw new IllegalArgumentException("Unknown result format: " + format);
+		this.format = format;
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		boolean header = format.equals(FORMAT_CSV) && (!Files.exists(file) || Files.size(file) == 0);
+		final BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+		if (header)
+			records.add(CSV_HEADER);
+		writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				write(out);
+			}
+		}, "result-sink");
+		writer.setDaemon(true);
+		writer.start();
+		logger.info("Writing results to " + file.toAbsolutePath() + " as " + format);
+	}
+
+	private void write(BufferedWriter out) {
+		try {
+			String record;
+			while ((record = records.take()) != END) {
+				out.write(record);
+				out.newLine();
+				if (records.isEmpty())
+					out.flush();
+			}
+		} catch (IOException e) {
+			logger.error("Error in writing the results", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				logger.error("Error in closing the result file", e);
+			}
+		}
+	}
+
+	/**
+	 * Queues the record of a completed evaluation
+	 * 
+	 * @param trial
+	 *            index of the trial, negative for warm-up iterations
+	 * @param submitted
+	 *            wall clock time of the submission in milliseconds
+	 * @param completed
+	 *            wall clock time of the completion in milliseconds
+	 */
+	public void write(EvaluationResult result, Path model, int trial, long submitted, long completed) {
+		ProcessResources resources = result.getResources();
+		if (format.equals(FORMAT_CSV))
+			records.add(csv(model.toString()) + "," + result.getSolverName() + "," + trial + "," + submitted + ","
+					+ completed + "," + result.getEvaluationTimeNanos() + "," + result.getStatus() + ","
+					+ result.isCached() + ","
+					+ (resources == null ? ",,,," : resources.getUserCpuNanos() + "," + resources.getSystemCpuNanos()
+							+ "," + resources.getPeakRssBytes() + "," + resources.getReadBytes() + ","
+							+ resources.getWriteBytes()));
+		else
+			records.add("{\"model\":" + json(model.toString()) + ",\"solver\":" + json(result.getSolverName())
+					+ ",\"trial\":" + trial + ",\"submitted\":" + submitted + ",\"completed\":" + completed
+					+ ",\"timeNanos\":" + result.getEvaluationTimeNanos() + ",\"status\":"
+					+ json(result.getStatus().name()) + ",\"cached\":" + result.isCached()
+					+ (resources == null ? "" : ",\"userCpuNanos\":" + resources.getUserCpuNanos()
+							+ ",\"systemCpuNanos\":" + resources.getSystemCpuNanos() + ",\"peakRssBytes\":"
+							+ resources.getPeakRssBytes() + ",\"readBytes\":" + resources.getReadBytes()
+							+ ",\"writeBytes\":" + resources.getWriteBytes())
+					+ "}");
+	}
+
+	/**
+	 * Writes the records still waiting and closes the file
+	 */
+	public void close() {
+		records.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String csv(String value) {
+		if (value.contains(",") || value.contains("\"") || value.contains("\n"))
+			return "\"" + value.replace("\"", "\"\"") + "\"";
+		return value;
+	}
+
+	private static String json(String value) {
+		StringBuilder s = new StringBuilder(value.length() + 2).append('"');
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\')
+				s.append('\\').append(c);
+			else if (c < 0x20)
+				s.append(String.format("\\u%04x", (int) c));
+			else
+				s.append(c);
+		}
+		return s.append('"').toString();
+	}
+
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.stats;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Throughput, solve times and cpu utilization of the solvers at increasing
+ * concurrency levels, with the speedup and the efficiency over a single
+ * evaluation at a time. The knee is the level with the highest power
+ * (throughput over mean solve time): past it more concurrency mostly makes
+ * each model slower. Cpu utilization is the share of all the cores of the
+ * host busy during the level, read from /proc/stat.
+ */
+public class ScalabilityReport {
+
+	private static final Logger logger = LoggerFactory.getLogger(ScalabilityReport.class);
+	private static final double NANOS_PER_MILLI = 1e6;
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final Path PROC_STAT = Paths.get("/proc/stat");
+
+	private final Map<String, List<Level>> levels = new LinkedHashMap<>();
+
+	/**
+	 * Concurrency levels 1, 2, 4, ... up to the maximum, which is always
+	 * included
+	 */
+	public static List<Integer> levels(int maxConcurrency) {
+		List<Integer> levels = new ArrayList<>();
+		for (int level = 1; level < maxConcurrency; level *= 2)
+			levels.add(level);
+		levels.add(Math.max(1, maxConcurrency));
+		return levels;
+	}
+
+	/**
+	 * Starts measuring the solver at the concurrency level, the results of
+	 * the level are recorded on the returned object until it is stopped
+	 */
+	public Level start(String solver, int concurrency) {
+		Level level = new Level(concurrency);
+		synchronized (levels) {
+			levels.computeIfAbsent(solver, k -> new ArrayList<>()).add(level);
+		}
+		return level;
+	}
+
+	public static class Level {
+
+		private final int concurrency;
+		private final TrialStatistics statistics = new TrialStatistics();
+		private final LongAdder failed = new LongAdder();
+		private final long startNanos;
+		private final long[] startCpu;
+		private long wallNanos;
+		private double cpuUtilization = Double.NaN;
+
+		private Level(int concurrency) {
+			this.concurrency = concurrency;
+			startCpu = cpuTicks();
+			startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Cached and skipped evaluations are not timed and are left out,
+		 * failed ones are counted
+		 */
+		public void record(EvaluationResult result) {
+			if (result.isCached() || result.getStatus() == EvaluationStatus.SKIPPED)
+				return;
+			if (result.getStatus() == EvaluationStatus.SUCCESS || result.getStatus() == EvaluationStatus.NOT_CONVERGED)
+				statistics.record(result.getEvaluationTimeNanos());
+			else
+				failed.increment();
+		}
+
+		/**
+		 * Ends the level, once all its evaluations have completed
+		 */
+		public void stop() {
+			wallNanos = System.nanoTime() - startNanos;
+			long[] endCpu = cpuTicks();
+			if (startCpu != null && endCpu != null && endCpu[1] > startCpu[1])
+				cpuUtilization = (double) (endCpu[0] - startCpu[0]) / (endCpu[1] - startCpu[1]);
+		}
+
+		public int getConcurrency() {
+			return concurrency;
+		}
+
+		public TrialStatistics getStatistics() {
+			return statistics;
+		}
+
+		/**
+		 * @return the solved models per second
+		 */
+		public double getThroughput() {
+			return wallNanos == 0 ? 0 : statistics.getCount() * NANOS_PER_SECOND / wallNanos;
+		}
+
+		/**
+		 * @return the share of the cpu time of the host spent busy, NaN when
+		 *         it cannot be read
+		 */
+		public double getCpuUtilization() {
+			return cpuUtilization;
+		}
+
+		private double getPower() {
+			return statistics.getCount() == 0 ? 0 : getThroughput() / statistics.getMean();
+		}
+	}
+
+	/**
+	 * Logs one line per solver and concurrency level, marking the knee,
+	 * times are in milliseconds
+	 */
+	public void log() {
+		logger.info("Solver, Concurrency, Models, Failed, Throughput (models/s), Mean, p95 (ms), Cpu (%), Speedup, Efficiency");
+		synchronized (levels) {
+			for (Map.Entry<String, List<Level>> e : levels.entrySet()) {
+				List<Level> solverLevels = e.getValue();
+				double baseline = solverLevels.get(0).getThroughput() / solverLevels.get(0).getConcurrency();
+				Level knee = solverLevels.get(0);
+				for (Level level : solverLevels)
+					if (level.getPower() > knee.getPower())
+						knee = level;
+				for (Level level : solverLevels) {
+					TrialStatistics s = level.getStatistics();
+					double speedup = baseline == 0 ? Double.NaN : level.getThroughput() / baseline;
+					logger.info(String.format("%s, %d, %d, %d, %.3f, %.3f, %.3f, %.1f, %.2f, %.2f%s", e.getKey(),
+							level.getConcurrency(), s.getCount(), level.failed.sum(), level.getThroughput(),
+							s.getMean() / NANOS_PER_MILLI, s.getPercentile(95) / NANOS_PER_MILLI,
+							level.getCpuUtilization() * 100, speedup, speedup / level.getConcurrency(),
+							level == knee ? " <- knee" : ""));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Busy and total clock ticks of all the cpus from /proc/stat, null when
+	 * it is not available
+	 */
+	private static long[] cpuTicks() {
+		try {
+			for (String line : Files.readAllLines(PROC_STAT)) {
+				if (!line.startsWith("cpu "))
+					continue;
+				String[] fields = line.trim().split("\\s+");
+				// user nice system idle iowait irq softirq steal, guest time is already in user
+				long total = 0;
+				for (int i = 1; i <= 8 && i < fields.length; i++)
+					total += Long.parseLong(fields[i]);
+				long idle = Long.parseLong(fields[4]) + (fields.length > 5 ? Long.parseLong(fields[5]) : 0);
+				return new long[] { total - idle, total };
+			}
+		} catch (IOException | NumberFormatException e) {
+			logger.debug("Could not read the cpu time from "+PROC_STAT+": "+e.getMessage());
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.stats;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Statistics of the evaluation times measured over repeated trials. Times
+ * are recorded in nanoseconds in an HDR histogram for the percentiles,
+ * mean and variance are computed exactly with Welford's algorithm.
+ */
+public class TrialStatistics {
+
+	/** two-sided 95% quantiles of the Student t distribution, by degrees of freedom **/
+	private static final double[] T_95 = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+			2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060,
+			2.056, 2.052, 2.048, 2.045, 2.042 };
+	private static final double Z_95 = 1.96;
+
+	private final Histogram histogram = new Histogram(3);
+	private long count = 0;
+	private double mean = 0;
+	private double m2 = 0;
+
+	public synchronized void record(long nanos) {
+		histogram.recordValue(nanos);
+		count++;
+		double delta = nanos - mean;
+		mean += delta / count;
+		m2 += delta * (nanos - mean);
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean time in nanoseconds
+	 */
+	public synchronized double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the sample standard deviation in nanoseconds
+	 */
+	public synchronized double getStdDev() {
+		if (count < 2)
+			return 0;
+		return Math.sqrt(m2 / (count - 1));
+	}
+
+	/**
+	 * @return the time in nanoseconds below which the given percentage of
+	 *         the trials fall
+	 */
+	public synchronized long getPercentile(double percentile) {
+		return histogram.getValueAtPercentile(percentile);
+	}
+
+	/**
+	 * @return the half width, in nanoseconds, of the 95% confidence interval
+	 *         of the mean
+	 */
+	public synchronized double getConfidenceInterval95() {
+		if (count < 2)
+			return Double.NaN;
+		long df = count - 1;
+		double t = df <= T_95.length ? T_95[(int) df - 1] : Z_95;
+		return t * getStdDev() / Math.sqrt(count);
+	}
+
+}
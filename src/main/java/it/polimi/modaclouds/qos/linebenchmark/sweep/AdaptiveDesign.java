@@ -0,0 +1,311 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.sweep;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Design grown in rounds from the results of the solvers. The first round
+ * is taken from an initial design; once every point of a round has been
+ * evaluated by all the solvers, {@link #refine()} adds the midpoints of the
+ * edges between neighbouring points where the solvers disagree the most or
+ * where their solve time changes the most.
+ * 
+ * The disagreement of a point is the mean relative difference of the task
+ * throughputs and response times computed by each pair of solvers, 1 when
+ * only one of the two solved the model. The time change of an edge is the
+ * largest difference of the logarithm of the solve time of a solver at the
+ * two ends. Both are normalized by their largest value in the round.
+ */
+public class AdaptiveDesign implements SweepDesign {
+
+	private final ParameterSpace space;
+	private final int size;
+	private final int batch;
+	private final List<String> solvers;
+	private final List<double[]> points = new ArrayList<double[]>();
+	private final List<Outcome> outcomes = new ArrayList<Outcome>();
+	/** values of the points, so that no model is generated twice **/
+	private final Set<String> keys = new HashSet<String>();
+	private int completed;
+
+	/**
+	 * @param initial
+	 *            design of the first round, its points giving the same model
+	 *            are taken once
+	 * @param size
+	 *            number of points after which the refinement stops
+	 * @param batch
+	 *            points added by each refinement
+	 * @param solvers
+	 *            solvers evaluating each point
+	 */
+	public AdaptiveDesign(SweepDesign initial, int size, int batch, ParameterSpace space, List<String> solvers) {
+		this.space = space;
+		this.size = size;
+		this.batch = batch;
+		this.solvers = new ArrayList<String>(solvers);
+		for (int i = 0; i < initial.size() && points.size() < size; i++) {
+			double[] point = new double[space.getDimensions()];
+			initial.point(i, point);
+			add(point);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of points of the rounds so far
+	 */
+	public synchronized int available() {
+		return points.size();
+	}
+
+	@Override
+	public synchronized void point(int i, double[] point) {
+		System.arraycopy(points.get(i), 0, point, 0, point.length);
+	}
+
+	public synchronized void record(int i, String solver, EvaluationStatus status, long evaluationTimeNanos,
+			SolutionResult result) {
+		int s = solvers.indexOf(solver);
+		if (s < 0 || i >= outcomes.size())
+			return;
+		Outcome outcome = outcomes.get(i);
+		if (outcome.done[s])
+			return;
+		outcome.done[s] = true;
+		outcome.recorded[s] = true;
+		outcome.times[s] = evaluationTimeNanos;
+		if (status == EvaluationStatus.SUCCESS || status == EvaluationStatus.NOT_CONVERGED)
+			outcome.results[s] = result;
+		if (++outcome.count == solvers.size())
+			complete();
+	}
+
+	/**
+	 * The point will not be evaluated (e.g. its model could not be written)
+	 */
+	public synchronized void discard(int i) {
+		Outcome outcome = outcomes.get(i);
+		if (outcome.count < solvers.size()) {
+			outcome.count = solvers.size();
+			complete();
+		}
+	}
+
+	/**
+	 * The solver will not evaluate the point (e.g. the evaluation has been
+	 * rejected or skipped), the point is compared on the other solvers
+	 */
+	public synchronized void discard(int i, String solver) {
+		int s = solvers.indexOf(solver);
+		if (s < 0 || i >= outcomes.size())
+			return;
+		Outcome outcome = outcomes.get(i);
+		if (outcome.done[s])
+			return;
+		outcome.done[s] = true;
+		if (++outcome.count == solvers.size())
+			complete();
+	}
+
+	private void complete() {
+		completed++;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until all the points of the rounds so far have been evaluated
+	 */
+	public synchronized void awaitResults() throws InterruptedException {
+		while (completed < points.size())
+			wait();
+	}
+
+	/**
+	 * Adds a round of points
+	 * 
+	 * @return the number of points added, 0 when the design is complete or
+	 *         there are no new models to generate
+	 */
+	public synchronized int refine() {
+		int n = points.size();
+		int dimensions = space.getDimensions();
+		int wanted = Math.min(batch, size - n);
+		if (wanted <= 0 || n < 2)
+			return 0;
+		double[] disagreement = new double[n];
+		double maxDisagreement = 0;
+		for (int i = 0; i < n; i++) {
+			disagreement[i] = outcomes.get(i).disagreement();
+			maxDisagreement = Math.max(maxDisagreement, disagreement[i]);
+		}
+		// edges from each point to its nearest neighbours
+		int neighbours = Math.min(2 * dimensions, n - 1);
+		List<double[]> edges = new ArrayList<double[]>();
+		Set<Long> seen = new HashSet<Long>();
+		double maxTimeChange = 0;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			final double[] distances = new double[n];
+			for (int j = 0; j < n; j++) {
+				order[j] = j;
+				distances[j] = distance(points.get(i), points.get(j));
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(distances[a], distances[b]);
+				}
+			});
+			for (int k = 0, added = 0; k < n && added < neighbours; k++) {
+				int j = order[k];
+				if (j == i)
+					continue;
+				added++;
+				if (!seen.add(Math.min(i, j) * (long) n + Math.max(i, j)))
+					continue;
+				double timeChange = outcomes.get(i).timeChange(outcomes.get(j));
+				maxTimeChange = Math.max(maxTimeChange, timeChange);
+				edges.add(new double[] { i, j, Math.max(disagreement[i], disagreement[j]), timeChange });
+			}
+		}
+		for (double[] edge : edges)
+			edge[2] = (maxDisagreement > 0 ? edge[2] / maxDisagreement : 0)
+					+ (maxTimeChange > 0 ? edge[3] / maxTimeChange : 0);
+		Collections.sort(edges, new Comparator<double[]>() {
+			@Override
+			public int compare(double[] a, double[] b) {
+				return Double.compare(b[2], a[2]);
+			}
+		});
+		int added = 0;
+		for (int e = 0; e < edges.size() && added < wanted; e++) {
+			double[] a = points.get((int) edges.get(e)[0]);
+			double[] b = points.get((int) edges.get(e)[1]);
+			double[] midpoint = new double[dimensions];
+			for (int d = 0; d < dimensions; d++)
+				midpoint[d] = (a[d] + b[d]) / 2;
+			if (add(midpoint))
+				added++;
+		}
+		return added;
+	}
+
+	private boolean add(double[] point) {
+		space.snap(point);
+		if (!keys.add(space.describe(point)))
+			return false;
+		points.add(point);
+		outcomes.add(new Outcome());
+		return true;
+	}
+
+	private static double distance(double[] a, double[] b) {
+		double distance = 0;
+		for (int d = 0; d < a.length; d++)
+			distance += (a[d] - b[d]) * (a[d] - b[d]);
+		return distance;
+	}
+
+	/**
+	 * Results of the solvers on a point
+	 */
+	private class Outcome {
+
+		/** the solver has recorded or discarded the point **/
+		private final boolean[] done = new boolean[solvers.size()];
+		private final boolean[] recorded = new boolean[solvers.size()];
+		private final long[] times = new long[solvers.size()];
+		/** null when the solver did not solve the model **/
+		private final SolutionResult[] results = new SolutionResult[solvers.size()];
+		private int count;
+
+		double disagreement() {
+			double total = 0;
+			int pairs = 0;
+			for (int a = 0; a < results.length; a++)
+				for (int b = a + 1; b < results.length; b++) {
+					if (!recorded[a] || !recorded[b])
+						continue;
+					pairs++;
+					if (results[a] == null && results[b] == null)
+						continue;
+					if (results[a] == null || results[b] == null)
+						total += 1;
+					else
+						total += difference(results[a], results[b]);
+				}
+			return pairs > 0 ? total / pairs : 0;
+		}
+
+		double timeChange(Outcome other) {
+			double change = 0;
+			for (int s = 0; s < times.length; s++)
+				if (times[s] > 0 && other.times[s] > 0 && results[s] != null && other.results[s] != null)
+					change = Math.max(change, Math.abs(Math.log(times[s]) - Math.log(other.times[s])));
+			return change;
+		}
+	}
+
+	/**
+	 * Mean relative difference of the throughputs and response times of the
+	 * tasks in both results
+	 */
+	private static double difference(SolutionResult a, SolutionResult b) {
+		double total = 0;
+		int count = 0;
+		for (int i = 0; i < a.size(Level.TASK); i++) {
+			int j = b.indexOf(Level.TASK, a.getName(Level.TASK, i));
+			if (j < 0)
+				continue;
+			double x = relativeDifference(a.getThroughput(Level.TASK, i), b.getThroughput(Level.TASK, j));
+			if (!Double.isNaN(x)) {
+				total += x;
+				count++;
+			}
+			double r = relativeDifference(a.getResponseTime(Level.TASK, i), b.getResponseTime(Level.TASK, j));
+			if (!Double.isNaN(r)) {
+				total += r;
+				count++;
+			}
+		}
+		return count > 0 ? total / count : 0;
+	}
+
+	private static double relativeDifference(double x, double y) {
+		double scale = Math.max(Math.abs(x), Math.abs(y));
+		if (Double.isNaN(x) || Double.isNaN(y) || Double.isInfinite(scale) || scale == 0)
+			return Double.NaN;
+		return Math.abs(x - y) / scale;
+	}
+
+}
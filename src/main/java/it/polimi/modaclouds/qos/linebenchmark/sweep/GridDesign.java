@@ -0,0 +1,56 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.sweep;
+
+/**
+ * Full factorial design, every combination of evenly spaced levels of each
+ * dimension. The last dimension varies fastest; a dimension with a single
+ * level is set to the middle of its range.
+ */
+public class GridDesign implements SweepDesign {
+
+	private final int[] levels;
+	private final int size;
+
+	public GridDesign(int[] levels) {
+		this.levels = levels.clone();
+		long size = 1;
+		for (int l : levels) {
+			if (l < 1)
+				throw new IllegalArgumentException("A grid needs at least one level per dimension");
+			size *= l;
+			if (size > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Too many points in the grid");
+		}
+		this.size = (int) size;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void point(int i, double[] point) {
+		for (int d = levels.length - 1; d >= 0; d--) {
+			int level = i % levels[d];
+			i /= levels[d];
+			point[d] = levels[d] > 1 ? (double) level / (levels[d] - 1) : 0.5;
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.sweep;
+
+import java.util.SplittableRandom;
+
+/**
+ * Latin hypercube: the range of each dimension is divided in as many
+ * strata as points and every stratum holds exactly one point, strata are
+ * assigned by a random permutation per dimension and the point is placed
+ * uniformly within its stratum.
+ */
+public class LatinHypercubeDesign implements SweepDesign {
+
+	private final int size;
+	private final long seed;
+	/** stratum of each point, per dimension **/
+	private final int[][] strata;
+
+	public LatinHypercubeDesign(int size, int dimensions, long seed) {
+		this.size = size;
+		this.seed = seed;
+		strata = new int[dimensions][size];
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int d = 0; d < dimensions; d++) {
+			int[] permutation = strata[d];
+			for (int i = 0; i < size; i++)
+				permutation[i] = i;
+			for (int i = size - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = permutation[i];
+				permutation[i] = permutation[j];
+				permutation[j] = swap;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void point(int i, double[] point) {
+		SplittableRandom random = new SplittableRandom(RandomDesign.pointSeed(seed, i));
+		for (int d = 0; d < point.length; d++)
+			point[d] = (strata[d][i] + random.nextDouble()) / size;
+	}
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.sweep;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parameters swept by the generator, each one a dimension of the unit
+ * hypercube mapped linearly to a range of integer values or of real values
+ * with a fixed number of decimals.
+ */
+public class ParameterSpace {
+
+	private final List<String> names = new ArrayList<String>();
+	private final List<double[]> ranges = new ArrayList<double[]>();
+	/** decimals of the values, -1 for integers **/
+	private final List<Integer> decimals = new ArrayList<Integer>();
+
+	/**
+	 * @return the dimension of the parameter
+	 */
+	public int addInteger(String name, int min, int max) {
+		return add(name, min, max, -1);
+	}
+
+	/**
+	 * @return the dimension of the parameter
+	 */
+	public int addReal(String name, double min, double max, int decimals) {
+		return add(name, min, max, decimals);
+	}
+
+	private int add(String name, double min, double max, int decimals) {
+		if (max < min)
+			throw new IllegalArgumentException("Empty range of " + name + ": " + min + " to " + max);
+		names.add(name);
+		ranges.add(new double[] { min, max });
+		this.decimals.add(decimals);
+		return names.size() - 1;
+	}
+
+	public int getDimensions() {
+		return names.size();
+	}
+
+	public String getName(int dimension) {
+		return names.get(dimension);
+	}
+
+	/**
+	 * @return the value of the parameter at the coordinate u in [0,1]
+	 */
+	public double value(int dimension, double u) {
+		double[] range = ranges.get(dimension);
+		double value = u * (range[1] - range[0]) + range[0];
+		int places = decimals.get(dimension);
+		if (places < 0)
+			return Math.round(value);
+		return new BigDecimal(value).setScale(places, RoundingMode.HALF_UP).doubleValue();
+	}
+
+	/**
+	 * Moves the point to the coordinates of the values it is mapped to, so
+	 * that points giving the same model are equal
+	 */
+	public void snap(double[] point) {
+		for (int d = 0; d < point.length; d++) {
+			double[] range = ranges.get(d);
+			point[d] = range[1] > range[0] ? (value(d, point[d]) - range[0]) / (range[1] - range[0]) : 0;
+		}
+	}
+
+	/**
+	 * Number of levels of the dimension in a grid of at most maxLevels per
+	 * dimension, integer ranges have no more levels than values
+	 */
+	public int levels(int dimension, int maxLevels) {
+		double[] range = ranges.get(dimension);
+		if (decimals.get(dimension) < 0)
+			return (int) Math.min(maxLevels, range[1] - range[0] + 1);
+		return range[1] > range[0] ? maxLevels : 1;
+	}
+
+	/**
+	 * Text of the values of the point, equal for points giving the same model
+	 */
+	public String describe(double[] point) {
+		StringBuilder text = new StringBuilder();
+		for (int d = 0; d < point.length; d++) {
+			if (d > 0)
+				text.append(' ');
+			double value = value(d, point[d]);
+			text.append(names.get(d)).append('=');
+			if (decimals.get(d) < 0)
+				text.append((long) value);
+			else
+				text.append(value);
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.sweep;
+
+import java.util.SplittableRandom;
+
+/**
+ * Independent uniform points, each drawn from a generator seeded from its
+ * index so that a point does not depend on the thread generating it
+ */
+public class RandomDesign implements SweepDesign {
+
+	private final int size;
+	private final long seed;
+
+	public RandomDesign(int size, long seed) {
+		this.size = size;
+		this.seed = seed;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void point(int i, double[] point) {
+		SplittableRandom random = new SplittableRandom(pointSeed(seed, i));
+		for (int d = 0; d < point.length; d++)
+			point[d] = random.nextDouble();
+	}
+
+	/**
+	 * Seed of the i-th point of a design
+	 */
+	static long pointSeed(long seed, int i) {
+		return new SplittableRandom(seed + i * 0x9E3779B97F4A7C15L).nextLong();
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.sweep;
+
+/**
+ * Sobol low-discrepancy sequence with the direction numbers of Joe and Kuo
+ * (new-joe-kuo-6.21201), points are generated in Gray code order so that
+ * any point can be computed from its index. The first point is the origin;
+ * the balance of the design is best when its size is a power of two.
+ */
+public class SobolDesign implements SweepDesign {
+
+	private static final int BITS = 32;
+	private static final double SCALE = 1L << BITS;
+
+	/**
+	 * Degree s, coefficients a and initial direction numbers m_1..m_s of the
+	 * dimensions from the second one, the first dimension has all m = 1
+	 */
+	private static final int[][] DIRECTIONS = {
+		{ 1, 0, 1 },
+		{ 2, 1, 1, 3 },
+		{ 3, 1, 1, 3, 1 },
+		{ 3, 2, 1, 1, 1 },
+		{ 4, 1, 1, 1, 3, 3 },
+		{ 4, 4, 1, 3, 5, 13 },
+		{ 5, 2, 1, 1, 5, 5, 17 },
+		{ 5, 4, 1, 1, 5, 5, 5 },
+		{ 5, 7, 1, 1, 7, 11, 19 },
+		{ 5, 11, 1, 1, 5, 1, 1 },
+		{ 5, 13, 1, 1, 1, 3, 11 },
+		{ 5, 14, 1, 3, 5, 5, 31 },
+		{ 6, 1, 1, 3, 3, 9, 7, 49 },
+		{ 6, 13, 1, 1, 1, 15, 21, 21 },
+		{ 6, 16, 1, 3, 1, 13, 27, 49 },
+		{ 6, 19, 1, 1, 1, 15, 7, 5 },
+		{ 6, 22, 1, 3, 1, 15, 13, 25 },
+		{ 6, 25, 1, 1, 5, 5, 19, 61 },
+		{ 7, 1, 1, 3, 7, 11, 23, 15, 103 },
+		{ 7, 4, 1, 3, 7, 13, 13, 15, 69 },
+	};
+
+	public static final int MAX_DIMENSIONS = DIRECTIONS.length + 1;
+
+	private final int size;
+	/** direction numbers v[d][k], scaled by 2^32 **/
+	private final long[][] v;
+
+	public SobolDesign(int size, int dimensions) {
+		if (dimensions > MAX_DIMENSIONS)
+			throw new IllegalArgumentException("Sobol designs are limited to " + MAX_DIMENSIONS + " dimensions, "
+					+ dimensions + " requested");
+		this.size = size;
+		v = new long[dimensions][BITS];
+		for (int k = 0; k < BITS; k++)
+			v[0][k] = 1L << (BITS - 1 - k);
+		for (int d = 1; d < dimensions; d++) {
+			int[] direction = DIRECTIONS[d - 1];
+			int s = direction[0];
+			int a = direction[1];
+			for (int k = 0; k < BITS; k++) {
+				if (k < s)
+					v[d][k] = (long) direction[2 + k] << (BITS - 1 - k);
+				else {
+					long value = v[d][k - s] ^ (v[d][k - s] >> s);
+					for (int j = 1; j < s; j++)
+						if (((a >> (s - 1 - j)) & 1) != 0)
+							value ^= v[d][k - j];
+					v[d][k] = value;
+				}
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void point(int i, double[] point) {
+		int gray = i ^ (i >>> 1);
+		for (int d = 0; d < point.length; d++) {
+			long x = 0;
+			for (int k = 0; k < BITS && (gray >>> k) != 0; k++)
+				if (((gray >>> k) & 1) != 0)
+					x ^= v[d][k];
+			point[d] = x / SCALE;
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.sweep;
+
+/**
+ * A set of points in the unit hypercube, each coordinate is mapped to the
+ * value of a parameter by a {@link ParameterSpace}. Points are accessed by
+ * index and may be requested concurrently by the generator threads.
+ */
+public interface SweepDesign {
+
+	/**
+	 * @return the number of points of the design
+	 */
+	int size();
+
+	/**
+	 * Writes the coordinates of the i-th point, in [0,1]
+	 */
+	void point(int i, double[] point);
+
+}
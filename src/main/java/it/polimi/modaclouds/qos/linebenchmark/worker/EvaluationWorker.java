@@ -0,0 +1,260 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.worker;
+
+import it.polimi.modaclouds.qos.linebenchmark.main.Main;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationServer;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+import it.polimi.modaclouds.qos.linebenchmark.solver.Solver;
+import it.polimi.modaclouds.qos.linebenchmark.worker.WorkerProtocol.SolverInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Worker node of a distributed campaign: solves the models shipped by a
+ * coordinator (an {@link EvaluationServer} with the workers property) with
+ * its local solvers and sends back the outcomes, see {@link WorkerProtocol}.
+ * Each model is written to a directory of its own, removed once the result
+ * has been sent.
+ * <p>
+ * Configured from the evaluation properties, as the coordinator, with:
+ * <ul>
+ * <li>workerPort: port to listen on (default 5470)</li>
+ * <li>workerDirectory: where the models are written (default a temporary
+ * directory)</li>
+ * <li>workerResultsFile: record of the evaluations of this worker (default
+ * none, the coordinator keeps its own)</li>
+ * </ul>
+ * The solvers, their concurrency, timeouts and cpu sets are the ones of the
+ * properties; the journal and the workers of the coordinator are ignored.
+ */
+public class EvaluationWorker {
+
+	public static final int DEFAULT_PORT = 5470;
+
+	private static final Logger logger = LoggerFactory.getLogger(EvaluationWorker.class);
+
+	private final int port;
+	private final Path directory;
+	private final EvaluationServer server;
+	private final AtomicInteger sessions = new AtomicInteger();
+	private final AtomicLong evaluated = new AtomicLong();
+	private ServerSocket serverSocket;
+	private volatile boolean running;
+
+	public EvaluationWorker(Properties properties) throws IOException {
+		port = Integer.parseInt(properties.getProperty("workerPort", ""+DEFAULT_PORT));
+		String workerDirectory = properties.getProperty("workerDirectory", "");
+		directory = workerDirectory.isEmpty() ? Files.createTempDirectory("linebenchmark-worker")
+				: Files.createDirectories(Paths.get(workerDirectory));
+		Properties local = new Properties();
+		local.putAll(properties);
+		local.setProperty("resultsFile", properties.getProperty("workerResultsFile", ""));
+		local.setProperty("journalFile", "");
+		local.remove("workers");
+		server = new EvaluationServer(true, local);
+	}
+
+	/**
+	 * Serves the coordinators, one session for each connection, until
+	 * stopped
+	 */
+	public void serve() throws IOException {
+		serverSocket = new ServerSocket(port);
+		running = true;
+		logger.info("Worker listening on port "+port+" with "+server.getSolverNames()+", models in "+directory);
+		try {
+			while (running) {
+				final Socket socket = serverSocket.accept();
+				Thread session = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						handle(socket);
+					}
+				}, "worker-session-"+sessions.incrementAndGet());
+				session.setDaemon(true);
+				session.start();
+			}
+		} catch (SocketException e) {
+			if (running)
+				throw e;
+		}
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			if (serverSocket != null)
+				serverSocket.close();
+		} catch (IOException e) {
+			logger.warn("Error in closing the server socket", e);
+		}
+		server.exit();
+		logger.info("Worker evaluated "+evaluated.get()+" models");
+	}
+
+	private List<SolverInfo> solvers() {
+		List<SolverInfo> solvers = new ArrayList<SolverInfo>();
+		for (String name : server.getSolverNames()) {
+			Solver solver = server.getSolver(name);
+			solvers.add(new SolverInfo(name, solver.getVersion(), server.getConcurrency(name), solver.getCapabilities()));
+		}
+		return solvers;
+	}
+
+	private void handle(Socket socket) {
+		String coordinator = socket.getRemoteSocketAddress().toString();
+		String session = Thread.currentThread().getName().substring("worker-".length());
+		logger.info("Coordinator "+coordinator+" connected");
+		try (Socket connection = socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+			connection.setTcpNoDelay(true);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			WorkerProtocol.writeHello(out, InetAddress.getLocalHost().getHostName()+":"+port, solvers());
+			byte frame;
+			while ((frame = in.readByte()) != WorkerProtocol.BYE) {
+				if (frame != WorkerProtocol.EVALUATE)
+					throw new IOException("Unexpected frame "+frame);
+				final long task = in.readLong();
+				String solver = in.readUTF();
+				// only the name is kept, the model stays in its directory
+				String fileName = Paths.get(in.readUTF()).getFileName().toString();
+				int length = in.readInt();
+				if (length < 0 || length > WorkerProtocol.MAX_MODEL_LENGTH)
+					throw new IOException("Model "+fileName+" too large: "+length+" bytes");
+				byte[] content = new byte[length];
+				in.readFully(content);
+				final Path taskDirectory = Files.createDirectories(directory.resolve(session+"-"+task));
+				Path model = taskDirectory.resolve(fileName);
+				Files.write(model, content);
+				evaluate(model, solver).whenComplete((result, t) -> {
+					if (t != null)
+						result = new EvaluationResult(model.getFileName(), solver, 0, EvaluationStatus.ERROR);
+					try {
+						synchronized (out) {
+							WorkerProtocol.writeResult(out, task, result);
+						}
+						evaluated.incrementAndGet();
+					} catch (IOException e) {
+						logger.warn("Could not send the result of "+fileName+" to "+coordinator+": "+e.getMessage());
+					} finally {
+						delete(taskDirectory);
+					}
+				});
+			}
+			logger.info("Coordinator "+coordinator+" disconnected");
+		} catch (EOFException e) {
+			logger.warn("Coordinator "+coordinator+" closed the connection");
+		} catch (IOException e) {
+			logger.warn("Session with coordinator "+coordinator+" ended: "+e.getMessage());
+		}
+	}
+
+	private CompletableFuture<EvaluationResult> evaluate(Path model, String solver) {
+		try {
+			return server.evaluateModel(model, solver);
+		} catch (RuntimeException e) {
+			logger.error("Could not evaluate "+model.getFileName()+" with "+solver+": "+e.getMessage());
+			return CompletableFuture.completedFuture(
+					new EvaluationResult(model.getFileName(), solver, 0, EvaluationStatus.ERROR));
+		}
+	}
+
+	private static void delete(Path taskDirectory) {
+		try (Stream<Path> files = Files.walk(taskDirectory)) {
+			List<Path> paths = new ArrayList<Path>();
+			files.forEach(paths::add);
+			Collections.reverse(paths);
+			for (Path path : paths)
+				Files.deleteIfExists(path);
+		} catch (IOException e) {
+			logger.warn("Could not remove "+taskDirectory+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * @param args
+	 *            the evaluation property file (default Evaluation.properties
+	 *            on the class path), the port can be overridden by a second
+	 *            argument
+	 */
+	public static void main(String[] args) {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		PropertyConfigurator.configure(loader.getResourceAsStream("log4j.properties"));
+		try {
+			Main.LINE_PROP_FILE = Paths.get(Main.class.getResource("/LINE.properties").toURI());
+		} catch (URISyntaxException e) {
+			logger.error("error in retreiving line property file", e);
+		}
+		Properties properties = new Properties();
+		try (InputStream input = args.length > 0 ? new FileInputStream(args[0])
+				: loader.getResourceAsStream("Evaluation.properties")) {
+			properties.load(input);
+		} catch (IOException e) {
+			logger.error("Error in reading the properties file", e);
+			return;
+		}
+		if (args.length > 1)
+			properties.setProperty("workerPort", args[1]);
+		final EvaluationWorker worker;
+		try {
+			worker = new EvaluationWorker(properties);
+		} catch (IOException e) {
+			logger.error("Could not create the worker directory", e);
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				worker.stop();
+			}
+		});
+		try {
+			worker.serve();
+		} catch (IOException e) {
+			logger.error("Error in serving on port "+properties.getProperty("workerPort", ""+DEFAULT_PORT), e);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.worker;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationCompletedEvent;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionEvaluator;
+import it.polimi.modaclouds.qos.linebenchmark.solver.Solver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates a model on a worker, the slot of the solver executor is kept
+ * busy until the worker has answered so that the coordinator never ships
+ * more models than the workers can solve at once
+ */
+public class RemoteEvaluator extends SolutionEvaluator {
+
+	private static final Logger logger = LoggerFactory.getLogger(RemoteEvaluator.class);
+
+	private final Path model;
+	private final String solverName;
+	private final WorkerPool pool;
+
+	public RemoteEvaluator(Path model, Solver solver, WorkerPool pool) {
+		super(model, solver);
+		this.model = model;
+		this.solverName = solver.getName();
+		this.pool = pool;
+	}
+
+	@Override
+	protected void evaluate() {
+		byte[] content;
+		try {
+			content = Files.readAllBytes(model);
+		} catch (IOException e) {
+			logger.error("Could not read model "+model, e);
+			evaluationCompleted(completionEvent(EvaluationStatus.ERROR, 0));
+			return;
+		}
+		EvaluationResult result = pool.submit(solverName, model.getFileName().toString(), content).join();
+		EvaluationCompletedEvent event = completionEvent(result.getStatus(), result.getEvaluationTimeNanos());
+		event.setSolutionResult(result.getSolutionResult());
+		event.setResources(result.getResources());
+		evaluationCompleted(event);
+	}
+}
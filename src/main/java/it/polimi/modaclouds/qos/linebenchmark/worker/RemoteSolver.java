@@ -0,0 +1,102 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.worker;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.AbstractSolver;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult;
+
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A solver run by the workers of a {@link WorkerPool}. The content of each
+ * model is shipped to a worker, which solves it with its local solver and
+ * sends back the outcome with the metrics, so no result file is written on
+ * the coordinator. Version, concurrency and capabilities are the ones
+ * reported by the workers, timeouts and cpu sets are configured on them.
+ */
+public class RemoteSolver extends AbstractSolver {
+
+	private final WorkerPool pool;
+
+	public RemoteSolver(String name, WorkerPool pool) {
+		super(name, pool.getVersion(name));
+		this.pool = pool;
+	}
+
+	/**
+	 * Nothing to configure, the workers use their own properties
+	 */
+	@Override
+	public void init(Properties properties) {
+	}
+
+	/**
+	 * The capabilities shared by all the workers, except for the result
+	 * files that stay on the workers
+	 */
+	@Override
+	public Set<Capability> getCapabilities() {
+		Set<Capability> capabilities = EnumSet.copyOf(pool.getCapabilities(getName()));
+		capabilities.remove(Capability.RESULT_FILE);
+		return capabilities;
+	}
+
+	/**
+	 * The slots of the solver over all the workers
+	 */
+	@Override
+	public int getConcurrencyLimit() {
+		return Math.max(1, pool.getConcurrency(getName()));
+	}
+
+	@Override
+	public CompletableFuture<EvaluationResult> submit(Path model, Executor executor, Executor parserExecutor) {
+		RemoteEvaluator eval = new RemoteEvaluator(model, this, pool);
+		eval.setParserExecutor(parserExecutor);
+		executor.execute(eval);
+		return eval.getResult();
+	}
+
+	@Override
+	public Path resultFilePath(Path model) {
+		return null;
+	}
+
+	/**
+	 * The metrics come with the result sent by the worker
+	 */
+	@Override
+	public SolutionResult parseResults(Path model) {
+		return null;
+	}
+
+	@Override
+	public void logStatistics() {
+		pool.logStatistics(getName());
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.worker;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+import it.polimi.modaclouds.qos.linebenchmark.solver.Solver.Capability;
+import it.polimi.modaclouds.qos.linebenchmark.worker.WorkerProtocol.SolverInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The workers a coordinator ships its models to. Models wait in a queue for
+ * each solver and every worker takes the next one as soon as one of its
+ * solver slots is free, so faster or less loaded workers take more models
+ * and none is left queued on a busy worker. When a worker is lost its models
+ * in flight go back to the head of the queues, to be taken by the others;
+ * a model is given up after {@link #MAX_ATTEMPTS} lost workers, or when no
+ * worker running its solver is left.
+ */
+public class WorkerPool {
+
+	static final int MAX_ATTEMPTS = 3;
+
+	private static final Logger logger = LoggerFactory.getLogger(WorkerPool.class);
+
+	private final List<Worker> workers = new ArrayList<Worker>();
+	/** models waiting for a worker, by solver; guarded by the pool **/
+	private final Map<String, Deque<Task>> pending = new HashMap<String, Deque<Task>>();
+	/** solvers run by at least one worker, in the order they are advertised **/
+	private final Map<String, SolverInfo> solvers = new LinkedHashMap<String, SolverInfo>();
+	private final AtomicLong nextTask = new AtomicLong();
+	private boolean closed = false;
+	/** models sent again after the loss of a worker, by solver **/
+	private final Map<String, Long> requeued = new HashMap<String, Long>();
+
+	/**
+	 * Connects to the workers listed as host:port, comma separated. Workers
+	 * that can not be reached are skipped.
+	 * 
+	 * @throws IOException
+	 *             if no worker can be reached
+	 */
+	public WorkerPool(String addresses) throws IOException {
+		for (String[] address : WorkerProtocol.addresses(addresses))
+			try {
+				Worker worker = new Worker(address[0], Integer.parseInt(address[1]));
+				workers.add(worker);
+				for (SolverInfo solver : worker.solvers.values()) {
+					SolverInfo known = solvers.get(solver.name);
+					if (known == null)
+						solvers.put(solver.name, solver);
+					else if (!known.version.equals(solver.version))
+						logger.warn("Worker "+worker.name+" runs "+solver.name+" "+solver.version
+								+", other workers run "+known.version);
+					if (!pending.containsKey(solver.name)) {
+						pending.put(solver.name, new ArrayDeque<Task>());
+						requeued.put(solver.name, 0L);
+					}
+				}
+				logger.info("Connected to worker "+worker.name+" at "+address[0]+":"+address[1]+" running "+worker.describe());
+			} catch (IOException e) {
+				logger.error("Could not connect to worker "+address[0]+":"+address[1]+": "+e.getMessage());
+			}
+		if (workers.isEmpty())
+			throw new IOException("No worker could be reached in "+addresses);
+		for (Worker worker : workers)
+			worker.start();
+	}
+
+	/**
+	 * Names of the solvers run by the workers
+	 */
+	public List<String> getSolverNames() {
+		return new ArrayList<String>(solvers.keySet());
+	}
+
+	/**
+	 * Version of the solver reported by the first worker running it
+	 */
+	public String getVersion(String solver) {
+		return solvers.get(solver).version;
+	}
+
+	/**
+	 * Evaluations of the solver the connected workers can carry out at once
+	 */
+	public synchronized int getConcurrency(String solver) {
+		int concurrency = 0;
+		for (Worker worker : workers)
+			if (worker.alive && worker.solvers.containsKey(solver))
+				concurrency += worker.solvers.get(solver).concurrency;
+		return concurrency;
+	}
+
+	/**
+	 * Capabilities of the solver on every worker running it
+	 */
+	public synchronized Set<Capability> getCapabilities(String solver) {
+		Set<Capability> capabilities = EnumSet.allOf(Capability.class);
+		for (Worker worker : workers)
+			if (worker.solvers.containsKey(solver))
+				capabilities.retainAll(worker.solvers.get(solver).capabilities);
+		return capabilities;
+	}
+
+	/**
+	 * Queues the model for the first worker with a free slot of the solver.
+	 * The result refers to the file name of the model.
+	 */
+	public CompletableFuture<EvaluationResult> submit(String solver, String fileName, byte[] model) {
+		Task task = new Task(nextTask.getAndIncrement(), solver, fileName, model);
+		synchronized (this) {
+			if (!closed && hasWorker(solver)) {
+				pending.get(solver).addLast(task);
+				notifyAll();
+				return task.result;
+			}
+		}
+		logger.error("No worker left running "+solver+", model "+fileName+" not evaluated");
+		task.fail();
+		return task.result;
+	}
+
+	/**
+	 * Ends the sessions with the workers, which keep running
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		for (Worker worker : workers)
+			worker.close();
+	}
+
+	public synchronized void logStatistics(String solver) {
+		for (Worker worker : workers)
+			if (worker.solvers.containsKey(solver))
+				logger.info("Worker "+worker.name+(worker.alive ? "" : " (lost)")+" "+solver+" evaluations: "
+						+worker.completed.get(solver));
+		logger.info(solver+" models sent again after the loss of a worker: "+requeued.get(solver));
+	}
+
+	private boolean hasWorker(String solver) {
+		for (Worker worker : workers)
+			if (worker.alive && worker.solvers.containsKey(solver))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Next model for the worker, waiting until it has a free slot for a
+	 * queued model. Returns null when the worker is lost or the pool closed.
+	 */
+	private synchronized Task take(Worker worker) throws InterruptedException {
+		while (worker.alive && !closed) {
+			for (SolverInfo solver : worker.solvers.values()) {
+				Deque<Task> queue = pending.get(solver.name);
+				if (worker.busy.get(solver.name) < solver.concurrency && !queue.isEmpty()) {
+					Task task = queue.pollFirst();
+					worker.inFlight.put(task.id, task);
+					worker.busy.put(solver.name, worker.busy.get(solver.name) + 1);
+					return task;
+				}
+			}
+			wait();
+		}
+		return null;
+	}
+
+	private synchronized Task completed(Worker worker, long id) {
+		Task task = worker.inFlight.remove(id);
+		if (task != null) {
+			worker.busy.put(task.solver, worker.busy.get(task.solver) - 1);
+			worker.completed.put(task.solver, worker.completed.get(task.solver) + 1);
+			notifyAll();
+		}
+		return task;
+	}
+
+	/**
+	 * Puts the models in flight on the lost worker back in the queues, and
+	 * gives up the ones that can not be evaluated anymore
+	 */
+	private void lost(Worker worker, Exception cause) {
+		List<Task> failed = new ArrayList<Task>();
+		synchronized (this) {
+			if (!worker.alive || closed)
+				return;
+			worker.alive = false;
+			logger.warn("Lost worker "+worker.name+" with "+worker.inFlight.size()+" models in flight: "+cause.getMessage());
+			for (Task task : worker.inFlight.values())
+				if (++task.attempts >= MAX_ATTEMPTS) {
+					logger.error("Model "+task.fileName+" given up after "+task.attempts+" lost workers");
+					failed.add(task);
+				} else {
+					pending.get(task.solver).addFirst(task);
+					requeued.put(task.solver, requeued.get(task.solver) + 1);
+				}
+			worker.inFlight.clear();
+			for (Map.Entry<String, Deque<Task>> queue : pending.entrySet())
+				if (!hasWorker(queue.getKey())) {
+					failed.addAll(queue.getValue());
+					queue.getValue().clear();
+				}
+			notifyAll();
+		}
+		if (!failed.isEmpty())
+			logger.error(failed.size()+" models could not be evaluated, no worker left running their solver");
+		for (Task task : failed)
+			task.fail();
+		worker.close();
+	}
+
+	private static class Task {
+		final long id;
+		final String solver;
+		final String fileName;
+		final byte[] model;
+		final CompletableFuture<EvaluationResult> result = new CompletableFuture<EvaluationResult>();
+		/** workers lost while evaluating the model, guarded by the pool **/
+		int attempts = 0;
+
+		Task(long id, String solver, String fileName, byte[] model) {
+			this.id = id;
+			this.solver = solver;
+			this.fileName = fileName;
+			this.model = model;
+		}
+
+		void fail() {
+			result.complete(new EvaluationResult(Paths.get(fileName), solver, 0, EvaluationStatus.ERROR));
+		}
+	}
+
+	/**
+	 * The session with a worker: the sender thread ships the models as
+	 * slots become free, the receiver thread completes them
+	 */
+	private class Worker {
+		final String name;
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		final Map<String, SolverInfo> solvers = new LinkedHashMap<String, SolverInfo>();
+		/** guarded by the pool **/
+		final Map<Long, Task> inFlight = new HashMap<Long, Task>();
+		final Map<String, Integer> busy = new HashMap<String, Integer>();
+		final Map<String, Long> completed = new HashMap<String, Long>();
+		boolean alive = true;
+
+		Worker(String host, int port) throws IOException {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			List<SolverInfo> advertised = new ArrayList<SolverInfo>();
+			try {
+				name = WorkerProtocol.readHello(in, advertised);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			for (SolverInfo solver : advertised) {
+				solvers.put(solver.name, solver);
+				busy.put(solver.name, 0);
+				completed.put(solver.name, 0L);
+			}
+		}
+
+		String describe() {
+			StringBuilder description = new StringBuilder();
+			for (SolverInfo solver : solvers.values())
+				description.append(description.length() > 0 ? ", " : "").append(solver.name).append(" ")
+						.append(solver.version).append(" x").append(solver.concurrency);
+			return description.toString();
+		}
+
+		void start() {
+			Thread sender = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					send();
+				}
+			}, "worker-sender-"+name);
+			Thread receiver = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					receive();
+				}
+			}, "worker-receiver-"+name);
+			sender.setDaemon(true);
+			receiver.setDaemon(true);
+			sender.start();
+			receiver.start();
+		}
+
+		private void send() {
+			try {
+				Task task;
+				while ((task = take(this)) != null)
+					synchronized (out) {
+						WorkerProtocol.writeEvaluate(out, task.id, task.solver, task.fileName, task.model);
+					}
+			} catch (IOException e) {
+				lost(this, e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void receive() {
+			try {
+				while (true) {
+					byte frame = in.readByte();
+					if (frame != WorkerProtocol.RESULT)
+						throw new IOException("Unexpected frame "+frame);
+					long id = in.readLong();
+					Task task;
+					synchronized (WorkerPool.this) {
+						task = inFlight.get(id);
+					}
+					if (task == null)
+						throw new IOException("Result of unknown task "+id);
+					EvaluationResult result = WorkerProtocol.readResult(in, task.solver, task.fileName);
+					if (completed(this, id) != null)
+						task.result.complete(result);
+				}
+			} catch (EOFException e) {
+				lost(this, new IOException("connection closed by the worker"));
+			} catch (IOException e) {
+				lost(this, e);
+			}
+		}
+
+		void close() {
+			try {
+				synchronized (out) {
+					out.writeByte(WorkerProtocol.BYE);
+					out.flush();
+				}
+			} catch (IOException e) {
+				// already disconnected
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				logger.debug("Error in closing the connection to worker "+name, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.worker;
+
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.EvaluationStatus;
+import it.polimi.modaclouds.qos.linebenchmark.solver.ProcessResources;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+import it.polimi.modaclouds.qos.linebenchmark.solver.Solver.Capability;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Binary frames exchanged by the coordinator and the workers over a socket.
+ * On connection the worker sends a HELLO with the solvers it runs; the
+ * coordinator then sends EVALUATE frames carrying the content of the models
+ * and the worker answers each with a RESULT frame, in completion order. BYE
+ * ends the session, the worker keeps waiting for other coordinators.
+ * <ul>
+ * <li>HELLO: magic, version, worker name, number of solvers, then for each
+ * solver its name, version, concurrency and capabilities</li>
+ * <li>EVALUATE: task id, solver, model file name, model length and bytes</li>
+ * <li>RESULT: task id, status, evaluation time (ns), cached flag, resources
+ * and metrics, each preceded by a presence flag</li>
+ * </ul>
+ */
+public final class WorkerProtocol {
+
+	static final int MAGIC = 0x4C42574B;
+	static final int VERSION = 1;
+
+	static final byte BYE = 0;
+	static final byte EVALUATE = 1;
+	static final byte RESULT = 2;
+
+	/** largest model accepted by a worker **/
+	static final int MAX_MODEL_LENGTH = 64 << 20;
+
+	private WorkerProtocol() {
+	}
+
+	/**
+	 * A solver as advertised by a worker
+	 */
+	static class SolverInfo {
+		final String name;
+		final String version;
+		final int concurrency;
+		final Set<Capability> capabilities;
+
+		SolverInfo(String name, String version, int concurrency, Set<Capability> capabilities) {
+			this.name = name;
+			this.version = version;
+			this.concurrency = concurrency;
+			this.capabilities = capabilities;
+		}
+	}
+
+	static void writeHello(DataOutputStream out, String workerName, List<SolverInfo> solvers) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(workerName);
+		out.writeInt(solvers.size());
+		for (SolverInfo solver : solvers) {
+			out.writeUTF(solver.name);
+			out.writeUTF(solver.version);
+			out.writeInt(solver.concurrency);
+			int capabilities = 0;
+			for (Capability capability : solver.capabilities)
+				capabilities |= 1 << capability.ordinal();
+			out.writeInt(capabilities);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the HELLO of a worker
+	 * 
+	 * @return the name of the worker, the solvers are added to the list
+	 */
+	static String readHello(DataInputStream in, List<SolverInfo> solvers) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a benchmark worker");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported worker protocol version " + version);
+		String workerName = in.readUTF();
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			String name = in.readUTF();
+			String solverVersion = in.readUTF();
+			int concurrency = in.readInt();
+			int bits = in.readInt();
+			Set<Capability> capabilities = EnumSet.noneOf(Capability.class);
+			for (Capability capability : Capability.values())
+				if ((bits & 1 << capability.ordinal()) != 0)
+					capabilities.add(capability);
+			solvers.add(new SolverInfo(name, solverVersion, concurrency, capabilities));
+		}
+		return workerName;
+	}
+
+	static void writeEvaluate(DataOutputStream out, long task, String solver, String fileName, byte[] model)
+			throws IOException {
+		out.writeByte(EVALUATE);
+		out.writeLong(task);
+		out.writeUTF(solver);
+		out.writeUTF(fileName);
+		out.writeInt(model.length);
+		out.write(model);
+		out.flush();
+	}
+
+	static void writeResult(DataOutputStream out, long task, EvaluationResult result) throws IOException {
+		out.writeByte(RESULT);
+		out.writeLong(task);
+		out.writeUTF(result.getStatus().name());
+		out.writeLong(result.getEvaluationTimeNanos());
+		out.writeBoolean(result.isCached());
+		ProcessResources resources = result.getResources();
+		out.writeBoolean(resources != null);
+		if (resources != null) {
+			out.writeLong(resources.getUserCpuNanos());
+			out.writeLong(resources.getSystemCpuNanos());
+			out.writeLong(resources.getPeakRssBytes());
+			out.writeLong(resources.getReadBytes());
+			out.writeLong(resources.getWriteBytes());
+		}
+		SolutionResult solution = result.getSolutionResult();
+		out.writeBoolean(solution != null);
+		if (solution != null)
+			for (Level level : Level.values()) {
+				out.writeInt(solution.size(level));
+				for (int i = 0; i < solution.size(level); i++) {
+					out.writeUTF(solution.getName(level, i));
+					out.writeDouble(solution.getUtilization(level, i));
+					out.writeDouble(solution.getThroughput(level, i));
+					out.writeDouble(solution.getResponseTime(level, i));
+				}
+			}
+		out.flush();
+	}
+
+	/**
+	 * Reads the body of a RESULT frame, after its task id
+	 */
+	static EvaluationResult readResult(DataInputStream in, String solver, String fileName) throws IOException {
+		EvaluationStatus status;
+		try {
+			status = EvaluationStatus.valueOf(in.readUTF());
+		} catch (IllegalArgumentException e) {
+			status = EvaluationStatus.ERROR;
+		}
+		long evaluationTimeNanos = in.readLong();
+		boolean cached = in.readBoolean();
+		ProcessResources resources = null;
+		if (in.readBoolean())
+			resources = new ProcessResources(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+		SolutionResult solution = null;
+		if (in.readBoolean()) {
+			SolutionResult.Builder builder = new SolutionResult.Builder();
+			for (Level level : Level.values()) {
+				int n = in.readInt();
+				for (int i = 0; i < n; i++)
+					builder.add(level, in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble());
+			}
+			solution = builder.build();
+		}
+		return new EvaluationResult(Paths.get(fileName), solver, evaluationTimeNanos, status, cached, solution, resources);
+	}
+
+	/**
+	 * Parses a list of host:port addresses
+	 */
+	static List<String[]> addresses(String list) {
+		List<String[]> addresses = new ArrayList<String[]>();
+		for (String address : list.split(",")) {
+			address = address.trim();
+			if (address.isEmpty())
+				continue;
+			int colon = address.lastIndexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("Worker address without port: " + address);
+			addresses.add(new String[] { address.substring(0, colon), address.substring(colon + 1) });
+		}
+		return addresses;
+	}
+}
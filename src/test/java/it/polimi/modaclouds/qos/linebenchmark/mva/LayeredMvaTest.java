@@ -0,0 +1,62 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.mva;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.polimi.modaclouds.qos.linebenchmark.model.CompiledModel;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult;
+import it.polimi.modaclouds.qos.linebenchmark.solver.SolutionResult.Level;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+/**
+ * Bounds of the layered MVA on a reference task calling a single-threaded
+ * FCFS task with host demand 1 on an FCFS processor
+ */
+public class LayeredMvaTest {
+
+	private static final double DEMAND = 1.0;
+
+	private static SolutionResult solve(String model) throws Exception {
+		Path path = Paths.get(LayeredMvaTest.class.getResource("/" + model).toURI());
+		LayeredMva mva = new LayeredMva(CompiledModel.compile(path));
+		assertTrue("not converged in " + mva.getIterations() + " iterations", mva.solve());
+		return mva.getResult();
+	}
+
+	/**
+	 * 100 users saturate the single thread: X = 1/D and every other user
+	 * waits for the thread
+	 */
+	@Test
+	public void singleServerSaturatesAtOneOverDemand() throws Exception {
+		SolutionResult result = solve("single-server.xml");
+		int server = result.indexOf(Level.TASK, "Server");
+		int client = result.indexOf(Level.TASK, "Client");
+		int processor = result.indexOf(Level.PROCESSOR, "Server_Processor");
+		assertEquals(1 / DEMAND, result.getThroughput(Level.TASK, server), 0.01);
+		assertEquals(1 / DEMAND, result.getThroughput(Level.TASK, client), 0.01);
+		assertEquals(1.0, result.getUtilization(Level.PROCESSOR, processor), 0.01);
+		// Little's law on the closed loop with no think time
+		assertEquals(100 * DEMAND, result.getResponseTime(Level.TASK, client), 1);
+		assertEquals(DEMAND, result.getResponseTime(Level.TASK, server), 0.01);
+	}
+}
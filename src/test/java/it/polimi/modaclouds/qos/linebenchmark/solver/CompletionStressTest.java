@@ -0,0 +1,339 @@
+/**
+ * Copyright 2014 deib-polimi
+ * Contact: deib-polimi <giovannipaolo.gibilisco@polimi.it>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package it.polimi.modaclouds.qos.linebenchmark.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Stress test of the completion path. Evaluator threads register synthetic
+ * evaluations with a LINE server handler, as the pool does, while a
+ * simulated LINE instance acknowledges and solves them in random order
+ * through the connection handler. A few models with the same names in two
+ * directories are submitted over and over, so each is in flight many times
+ * at once. Every evaluation must complete exactly once and reach an
+ * evaluator of its model, its own one when LINE echoes the request ids.
+ * The evaluation server must wait for all of its evaluations in a bounded
+ * time even when the evaluators throw.
+ */
+public class CompletionStressTest {
+
+	private static final int EVALUATIONS = 20000;
+	private static final int THREADS = 64;
+	/** largest number of requests LINE answers at once **/
+	private static final int LINE_WINDOW = 256;
+	private static final long TIMEOUT_SECONDS = 60;
+	private static final String[] DIRECTORIES = { "a", "b" };
+	private static final int MODELS = 8;
+
+	private static Level threshold;
+
+	@BeforeClass
+	public static void quiet() {
+		// the failures are expected, their stack traces would flood the output
+		threshold = LogManager.getLoggerRepository().getThreshold();
+		LogManager.getLoggerRepository().setThreshold(Level.OFF);
+	}
+
+	@AfterClass
+	public static void restore() {
+		LogManager.getLoggerRepository().setThreshold(threshold);
+	}
+
+	@Test
+	public void completionsMatchedOnRequestIds() throws Exception {
+		stress(true);
+	}
+
+	@Test
+	public void completionsMatchedOnModels() throws Exception {
+		stress(false);
+	}
+
+	/**
+	 * Every other evaluation of the flaky solver throws or fails to parse
+	 * its results, see {@link FlakySolver}
+	 */
+	@Test
+	public void awaitAllReturnsWhenEvaluatorsThrow() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("solvers", FlakySolver.NAME);
+		properties.setProperty("resultsFile", "");
+		properties.setProperty("parserThreads", "2");
+		final EvaluationServer server = new EvaluationServer(true, properties);
+		List<CompletableFuture<EvaluationResult>> results = new ArrayList<CompletableFuture<EvaluationResult>>();
+		for (int i = 0; i < EVALUATIONS; i++)
+			results.add(server.evaluateModel(Paths.get("flaky", "model-" + i + ".xml"), FlakySolver.NAME));
+
+		Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				server.awaitAll();
+			}
+		}, "await-all");
+		waiter.setDaemon(true);
+		waiter.start();
+		waiter.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+		assertFalse("awaitAll did not return within " + TIMEOUT_SECONDS + " s", waiter.isAlive());
+
+		int errors = 0;
+		for (CompletableFuture<EvaluationResult> result : results) {
+			assertTrue("evaluation not completed", result.isDone());
+			if (result.join().getStatus() == EvaluationStatus.ERROR)
+				errors++;
+		}
+		assertEquals("only the evaluations throwing before reporting fail", EVALUATIONS / 4, errors);
+		assertEquals(0, server.getPendingEvaluations(FlakySolver.NAME));
+		server.exit();
+	}
+
+	private static void stress(final boolean ids) throws Exception {
+		final LineSolver solver = new LineSolver() {
+			@Override
+			public SolutionResult parseResults(Path model) {
+				return null;
+			}
+		};
+		final LineServerHandler server = new LineServerHandler();
+		server.setRequestIds(ids);
+		final BlockingQueue<String> submitted = new LinkedBlockingQueue<String>();
+		final PipedWriter pipe = new PipedWriter();
+		LineConnectionHandler connection = new LineConnectionHandler(
+				new BufferedReader(new PipedReader(pipe, 1 << 16)), "stress", server.getRequests());
+		connection.addListener(server);
+		Thread reader = new Thread(connection, "stress-connection");
+		Thread line = new Thread(new SimulatedLine(submitted, pipe, EVALUATIONS), "stress-line");
+
+		final LongAdder misrouted = new LongAdder();
+		final LongAdder duplicated = new LongAdder();
+		/** answers matched to an earlier request of the same model **/
+		final LongAdder reordered = new LongAdder();
+		final Set<Integer> completed = ConcurrentHashMap.newKeySet();
+		final List<CompletableFuture<EvaluationResult>> results = Collections
+				.synchronizedList(new ArrayList<CompletableFuture<EvaluationResult>>());
+		ExecutorService evaluators = Executors.newFixedThreadPool(THREADS);
+
+		reader.start();
+		line.start();
+		for (int i = 0; i < EVALUATIONS; i++) {
+			final int evaluation = i;
+			final Path model = Paths.get("stress", DIRECTORIES[i % DIRECTORIES.length],
+					"model-" + (i / DIRECTORIES.length) % MODELS + ".xml").toAbsolutePath();
+			evaluators.execute(new Runnable() {
+				@Override
+				public void run() {
+					final long[] requestId = new long[1];
+					LineEvaluator evaluator = new LineEvaluator(model, solver);
+					evaluator.addListener(new ActionListener() {
+						@Override
+						public void actionPerformed(ActionEvent e) {
+							EvaluationCompletedEvent event = (EvaluationCompletedEvent) e;
+							if (!completed.add(evaluation))
+								duplicated.increment();
+							if (!event.getModelPath().equals(model.getFileName()))
+								misrouted.increment();
+							else if (event.getRequestId() != requestId[0])
+								reordered.increment();
+						}
+					});
+					results.add(evaluator.getResult());
+					try {
+						requestId[0] = server.addListener(model, evaluator);
+					} catch (InterruptedException e) {
+						return;
+					}
+					submitted.add(ids ? model + " ID " + requestId[0] : model.toString());
+					// the worker slot is kept until LINE has answered, as in LineEvaluator
+					evaluator.getResult().join();
+				}
+			});
+		}
+		evaluators.shutdown();
+		boolean finished = evaluators.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		evaluators.shutdownNow();
+		line.join(TimeUnit.SECONDS.toMillis(10));
+		reader.join(TimeUnit.SECONDS.toMillis(10));
+
+		assertTrue("evaluations not completed within " + TIMEOUT_SECONDS + " s", finished);
+		assertEquals(EVALUATIONS, results.size());
+		for (CompletableFuture<EvaluationResult> result : results)
+			assertTrue("evaluation not completed", result.isDone());
+		assertEquals("completions lost", EVALUATIONS, completed.size());
+		assertEquals("completions duplicated", 0, duplicated.sum());
+		assertEquals("completions delivered to another model", 0, misrouted.sum());
+		if (ids)
+			assertEquals("completions delivered to another request of the model", 0, reordered.sum());
+		assertEquals(EVALUATIONS, server.getSolvedRequests());
+		assertEquals(0, server.getOutstandingRequests());
+	}
+
+	/**
+	 * Answers the requests in windows, acknowledging and then solving each
+	 * window in a different random order
+	 */
+	private static class SimulatedLine implements Runnable {
+
+		private final BlockingQueue<String> submitted;
+		private final PipedWriter pipe;
+		private final int evaluations;
+		private final Random random = new Random(42);
+
+		SimulatedLine(BlockingQueue<String> submitted, PipedWriter pipe, int evaluations) {
+			this.submitted = submitted;
+			this.pipe = pipe;
+			this.evaluations = evaluations;
+		}
+
+		@Override
+		public void run() {
+			PrintWriter out = new PrintWriter(pipe);
+			List<String> window = new ArrayList<String>(LINE_WINDOW);
+			int solved = 0;
+			try {
+				while (solved < evaluations) {
+					String model = submitted.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+					if (model == null)
+						break;
+					window.add(model);
+					submitted.drainTo(window, LINE_WINDOW - 1);
+					Collections.shuffle(window, random);
+					for (String m : window)
+						out.println(answer(m, "SUBMITTED"));
+					Collections.shuffle(window, random);
+					for (String m : window)
+						out.println(answer(m.replace(".xml", "_res.xml"), "SOLVED"));
+					out.flush();
+					solved += window.size();
+					window.clear();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				out.close();
+			}
+		}
+
+		/**
+		 * The status goes between the model and the id, if any
+		 */
+		private static String answer(String request, String status) {
+			int id = request.indexOf(" ID ");
+			if (id < 0)
+				return "MODEL " + request + " " + status;
+			return "MODEL " + request.substring(0, id) + " " + status + request.substring(id);
+		}
+	}
+
+	/**
+	 * A solver failing in every way an evaluation can, by the index of the
+	 * model: 0 mod 4 throws before reporting, 1 reports results that can
+	 * not be parsed, 2 throws after reporting and 3 succeeds
+	 */
+	public static class FlakySolver extends AbstractSolver {
+
+		static final String NAME = "FLAKY";
+
+		public FlakySolver() {
+			super(NAME, "1");
+		}
+
+		@Override
+		public Set<Capability> getCapabilities() {
+			return EnumSet.noneOf(Capability.class);
+		}
+
+		@Override
+		public int getConcurrencyLimit() {
+			return 8;
+		}
+
+		@Override
+		public CompletableFuture<EvaluationResult> submit(Path model, Executor executor, Executor parserExecutor) {
+			FlakyEvaluator eval = new FlakyEvaluator(model, this);
+			eval.setParserExecutor(parserExecutor);
+			executor.execute(eval);
+			return eval.getResult();
+		}
+
+		@Override
+		public Path resultFilePath(Path model) {
+			return replaceExtension(model, "_res.xml");
+		}
+
+		@Override
+		public SolutionResult parseResults(Path model) throws IOException {
+			if (index(model) % 4 == 1)
+				throw new IOException("Unreadable results of " + model);
+			return null;
+		}
+
+		static int index(Path model) {
+			String name = model.getFileName().toString();
+			return Integer.parseInt(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+		}
+	}
+
+	private static class FlakyEvaluator extends SolutionEvaluator {
+
+		FlakyEvaluator(Path instance, Solver solver) {
+			super(instance, solver);
+		}
+
+		@Override
+		protected void evaluate() {
+			int index = FlakySolver.index(filePath);
+			if (index % 4 == 0)
+				throw new IllegalStateException("Solver crashed on " + filePath);
+			evaluationCompleted(completionEvent(EvaluationStatus.SUCCESS, 0));
+			if (index % 4 == 2)
+				throw new IllegalStateException("Solver crashed after solving " + filePath);
+		}
+	}
+}